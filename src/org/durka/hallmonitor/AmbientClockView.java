@@ -0,0 +1,369 @@
+/* Copyright 2013 Alex Burka
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.durka.hallmonitor;
+
+import java.util.Calendar;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.Typeface;
+import android.graphics.drawable.Drawable;
+import android.text.format.DateFormat;
+import android.util.TypedValue;
+import android.view.View;
+
+/**
+ * Low power cover face: the clock, the battery and the notification icons drawn straight onto one view, in place
+ * of the clock, battery and notification views from the layout.
+ * Everything is placed once when the view gets its size. After that a tick (every minute, unless set otherwise)
+ * only invalidates the clock digits that changed, and battery and notification changes only invalidate their own
+ * part of the view, so the view is never measured or laid out again and drawing it doesn't allocate.
+ */
+public class AmbientClockView extends View {
+
+	public static final long MINUTE = 60 * 1000;
+
+	//longest clock we show, "hh:mm:ss"
+	private static final int CLOCK_CHARS = 8;
+
+	private final Paint clockPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+	private final Paint textPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+	private final Paint badgePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+	private final Paint iconPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+	private final Drawable batteryNormal, batteryCharging;
+
+	//sizes, from the layout we replace
+	private final int clockHeight, iconSize, spacing, batteryMargin, batteryTop;
+
+	private Calendar calendar = Calendar.getInstance();
+	private boolean is24Hour = true;
+	private long tick = MINUTE;
+	private boolean running = false;
+
+	//the clock, one cell per character, so a changed digit only dirties its own cell
+	private final char[] clock = new char[CLOCK_CHARS];
+	private final char[] nextClock = new char[CLOCK_CHARS];
+	private int clockLength = 0;
+	private final float[] clockX = new float[CLOCK_CHARS];
+	private float digitWidth, colonWidth, clockBaseline;
+
+	//the battery, -1 until we hear the level
+	private int level = -1;
+	private boolean charging = false;
+	private final char[] percent = new char[4];
+	private int percentLength = 0;
+	private final Rect batteryArea = new Rect();
+	private float percentBaseline;
+
+	//the notification icons, as many slots as fit across with a "+k" badge in the last one if there are too many
+	private NotificationStrip.IconSource source;
+	private Rect[] slots = new Rect[0];
+	private Bitmap[] icons = new Bitmap[0];
+	private int shown = 0;
+	private int overflow = 0;
+	private final char[] badge = new char[8];
+	private int badgeLength = 0;
+	private float badgeOffset;
+
+	//stats
+	private int measures = 0;
+	private int layouts = 0;
+	private int draws = 0;
+	private long drawTime = 0;
+	private int ticks = 0;
+
+	private final Runnable ticker = new Runnable() {
+		@Override
+		public void run() {
+			ticks++;
+			updateClock();
+			//line up with the next minute (or whatever the tick is), not a minute from now
+			postDelayed(this, tick - System.currentTimeMillis() % tick);
+		}
+	};
+
+	public AmbientClockView(Context ctx) {
+		super(ctx);
+		Resources res = ctx.getResources();
+
+		clockHeight = dp(75);
+		iconSize = res.getDimensionPixelSize(R.dimen.notification_icon_size);
+		spacing = dp(4);
+		batteryMargin = dp(8);
+		batteryTop = dp(3);
+
+		clockPaint.setTextSize(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, 50, res.getDisplayMetrics()));
+		clockPaint.setTypeface(Typeface.DEFAULT_BOLD);
+		clockPaint.setTextAlign(Paint.Align.CENTER);
+		textPaint.setTextSize(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, 22, res.getDisplayMetrics()));
+		textPaint.setTextAlign(Paint.Align.RIGHT);
+		badgePaint.setTextSize(iconSize / 2);
+		badgePaint.setTextAlign(Paint.Align.CENTER);
+		setColor(0xFFFFFFFF);
+
+		//work out the text metrics once
+		for (char c = '0'; c <= '9'; c++) {
+			digitWidth = Math.max(digitWidth, clockPaint.measureText(String.valueOf(c)));
+		}
+		colonWidth = clockPaint.measureText(":");
+		clockBaseline = (clockHeight - clockPaint.ascent() - clockPaint.descent()) / 2;
+		percentBaseline = batteryTop - textPaint.ascent();
+		badgeOffset = -(badgePaint.ascent() + badgePaint.descent()) / 2;
+
+		batteryNormal = res.getDrawable(R.drawable.stat_sys_battery).mutate();
+		batteryCharging = res.getDrawable(R.drawable.stat_sys_battery_charge).mutate();
+	}
+
+	private int dp(int dp) {
+		return Math.round(dp * getResources().getDisplayMetrics().density);
+	}
+
+	/**
+	 * How often to update the clock. Under a minute, the clock shows seconds too.
+	 * @param ms Milliseconds between ticks.
+	 */
+	public void setTick(long ms) {
+		if (ms <= 0 || ms == tick) return;
+		tick = ms;
+		if (running) start();
+	}
+
+	/**
+	 * Start ticking, e.g. because the cover screen is showing.
+	 */
+	public void start() {
+		//pick up time zone and 12/24 hour changes since last time
+		calendar = Calendar.getInstance();
+		is24Hour = DateFormat.is24HourFormat(getContext());
+		removeCallbacks(ticker);
+		running = true;
+		ticker.run();
+	}
+
+	/**
+	 * Stop ticking.
+	 */
+	public void stop() {
+		running = false;
+		removeCallbacks(ticker);
+	}
+
+	public void setColor(int fgColor) {
+		if (fgColor == clockPaint.getColor()) return;
+		clockPaint.setColor(fgColor);
+		textPaint.setColor(fgColor);
+		badgePaint.setColor(fgColor);
+		invalidate();
+	}
+
+	public void setBattery(int newLevel, boolean newCharging) {
+		if (newLevel == level && newCharging == charging) return;
+		level = newLevel;
+		charging = newCharging;
+
+		batteryNormal.setLevel(level);
+		batteryCharging.setLevel(level);
+		percentLength = format(level, percent, 0);
+		percent[percentLength++] = '%';
+		invalidate(batteryArea.left, batteryArea.top, batteryArea.right, batteryArea.bottom);
+	}
+
+	public void setSource(NotificationStrip.IconSource source) {
+		this.source = source;
+		refresh();
+	}
+
+	/**
+	 * Rebind every slot, e.g. because notifications came or went.
+	 */
+	public void refresh() {
+		int count = source != null ? source.getCount() : 0;
+		int newShown = count > slots.length ? Math.max(0, slots.length - 1) : count;
+		int newOverflow = count - newShown;
+
+		if (newShown != shown || newOverflow != overflow) {
+			//the badge moved or changed, just redraw the whole row
+			shown = newShown;
+			overflow = newOverflow;
+			if (overflow > 0) {
+				badge[0] = '+';
+				badgeLength = format(overflow, badge, 1);
+			}
+			for (int i = 0; i < icons.length; i++) icons[i] = i < shown ? source.getIcon(i) : null;
+			if (slots.length > 0) invalidate(0, slots[0].top, getWidth(), slots[0].bottom);
+		} else {
+			for (int i = 0; i < shown; i++) refresh(i);
+		}
+	}
+
+	/**
+	 * Rebind the slot for one notification, if it is showing.
+	 */
+	public void refresh(int position) {
+		if (source == null || position >= shown) return;
+		Bitmap icon = source.getIcon(position);
+		if (icon == icons[position]) return;
+		icons[position] = icon;
+		Rect slot = slots[position];
+		invalidate(slot.left, slot.top, slot.right, slot.bottom);
+	}
+
+	private void updateClock() {
+		calendar.setTimeInMillis(System.currentTimeMillis());
+		int hour = calendar.get(is24Hour ? Calendar.HOUR_OF_DAY : Calendar.HOUR);
+		if (!is24Hour && hour == 0) hour = 12;
+
+		int length = 0;
+		if (is24Hour || hour >= 10) nextClock[length++] = (char)('0' + hour / 10);
+		nextClock[length++] = (char)('0' + hour % 10);
+		nextClock[length++] = ':';
+		length = twoDigits(calendar.get(Calendar.MINUTE), nextClock, length);
+		if (tick < MINUTE) {
+			nextClock[length++] = ':';
+			length = twoDigits(calendar.get(Calendar.SECOND), nextClock, length);
+		}
+
+		if (length != clockLength) {
+			//the clock got wider or narrower, so place it again
+			System.arraycopy(nextClock, 0, clock, 0, length);
+			clockLength = length;
+			placeClock();
+			invalidate(0, 0, getWidth(), clockHeight);
+			return;
+		}
+
+		for (int i = 0; i < length; i++) {
+			if (nextClock[i] != clock[i]) {
+				clock[i] = nextClock[i];
+				invalidate((int)clockX[i], 0, (int)Math.ceil(clockX[i] + cellWidth(clock[i])), clockHeight);
+			}
+		}
+	}
+
+	//work out where each cell of the clock goes, centered across the top
+	private void placeClock() {
+		float width = 0;
+		for (int i = 0; i < clockLength; i++) width += cellWidth(clock[i]);
+		float x = (getWidth() - width) / 2;
+		for (int i = 0; i < clockLength; i++) {
+			clockX[i] = x;
+			x += cellWidth(clock[i]);
+		}
+	}
+
+	private float cellWidth(char c) {
+		return c == ':' ? colonWidth : digitWidth;
+	}
+
+	private static int twoDigits(int value, char[] into, int at) {
+		into[at++] = (char)('0' + value / 10);
+		into[at++] = (char)('0' + value % 10);
+		return at;
+	}
+
+	//write a positive number into the array, returning where it ends
+	private static int format(int value, char[] into, int at) {
+		int digits = 1;
+		for (int v = value; v >= 10; v /= 10) digits++;
+		for (int i = at + digits - 1; i >= at; i--) {
+			into[i] = (char)('0' + value % 10);
+			value /= 10;
+		}
+		return at + digits;
+	}
+
+	@Override
+	protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+		measures++;
+		super.onMeasure(widthMeasureSpec, heightMeasureSpec);
+	}
+
+	@Override
+	protected void onLayout(boolean changed, int left, int top, int right, int bottom) {
+		layouts++;
+		super.onLayout(changed, left, top, right, bottom);
+	}
+
+	@Override
+	protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+		placeClock();
+
+		//battery in the top right, the percentage right aligned with the icon to its left
+		int percentWidth = (int)Math.ceil(textPaint.measureText("100%"));
+		int right = w - percentWidth - batteryMargin;
+		batteryNormal.setBounds(right - batteryNormal.getIntrinsicWidth(), batteryTop, right, batteryTop + batteryNormal.getIntrinsicHeight());
+		batteryCharging.setBounds(right - batteryCharging.getIntrinsicWidth(), batteryTop, right, batteryTop + batteryCharging.getIntrinsicHeight());
+		batteryArea.set(Math.min(batteryNormal.getBounds().left, batteryCharging.getBounds().left), 0, w,
+				Math.max((int)Math.ceil(percentBaseline + textPaint.descent()), batteryTop + Math.max(batteryNormal.getIntrinsicHeight(), batteryCharging.getIntrinsicHeight())));
+
+		//icons in a row under the clock
+		int count = Math.max(0, (w + spacing) / (iconSize + spacing));
+		slots = new Rect[count];
+		icons = new Bitmap[count];
+		for (int i = 0, x = 0; i < count; i++, x += iconSize + spacing) {
+			slots[i] = new Rect(x, clockHeight, x + iconSize, clockHeight + iconSize);
+		}
+		shown = -1; //make refresh() rebind everything
+		refresh();
+	}
+
+	@Override
+	protected void onDraw(Canvas canvas) {
+		long start = System.nanoTime();
+
+		for (int i = 0; i < clockLength; i++) {
+			canvas.drawText(clock, i, 1, clockX[i] + cellWidth(clock[i]) / 2, clockBaseline, clockPaint);
+		}
+
+		if (level >= 0) {
+			(charging ? batteryCharging : batteryNormal).draw(canvas);
+			canvas.drawText(percent, 0, percentLength, getWidth(), percentBaseline, textPaint);
+		}
+
+		for (int i = 0; i < shown; i++) {
+			if (icons[i] != null) canvas.drawBitmap(icons[i], null, slots[i], iconPaint);
+		}
+		if (overflow > 0 && shown >= 0 && shown < slots.length) {
+			Rect slot = slots[shown];
+			canvas.drawText(badge, 0, badgeLength, slot.exactCenterX(), slot.exactCenterY() + badgeOffset, badgePaint);
+		}
+
+		draws++;
+		drawTime += System.nanoTime() - start;
+	}
+
+	public int getMeasureCount() {
+		return measures;
+	}
+
+	public int getLayoutCount() {
+		return layouts;
+	}
+
+	public int getDrawCount() {
+		return draws;
+	}
+
+	@Override
+	public String toString() {
+		return "AmbientClockView[ticks=" + ticks + ", draws=" + draws + " avg " + (draws > 0 ? drawTime / draws / 1000 : 0) + "us"
+				+ ", measures=" + measures + ", layouts=" + layouts + "]";
+	}
+}
@@ -0,0 +1,108 @@
+/* Copyright 2013 Alex Burka
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.durka.hallmonitor;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.util.Log;
+
+/**
+ * Keeps the battery level and charging state up to date from the battery broadcasts, so the cover screen can show
+ * them without asking the system each time it comes up. The broadcast also fires for voltage and temperature
+ * changes; the listener only hears about changes to the level or charging state, on the main thread.
+ * The service sets it up, so it is already current when the cover first closes.
+ */
+public class BatteryTracker {
+
+	/**
+	 * Hears about changes to the battery level or charging state.
+	 */
+	public interface Listener {
+		void onBatteryChanged(int level, boolean charging);
+	}
+
+	private static BatteryTracker instance;
+
+	private volatile int level = -1;
+	private volatile boolean charging = false;
+	private Listener listener;
+
+	//stats
+	private int broadcasts = 0;
+	private int changes = 0;
+
+	private final BroadcastReceiver receiver = new BroadcastReceiver() {
+		@Override
+		public void onReceive(Context context, Intent intent) {
+			broadcasts++;
+			update(intent);
+		}
+	};
+
+	private BatteryTracker(Context ctx) {
+		//the battery broadcast is sticky, so this gives us the current state straight away
+		Intent status = ctx.registerReceiver(receiver, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+		if (status != null) update(status);
+	}
+
+	/**
+	 * Get the shared tracker.
+	 * @param ctx Context, only used the first time to set up the tracker.
+	 * @return The tracker.
+	 */
+	public static synchronized BatteryTracker getInstance(Context ctx) {
+		if (instance == null) instance = new BatteryTracker(ctx.getApplicationContext());
+		return instance;
+	}
+
+	public void setListener(Listener l) {
+		listener = l;
+	}
+
+	/**
+	 * @return Battery level in percent, or -1 if we don't know yet.
+	 */
+	public int getLevel() {
+		return level;
+	}
+
+	public boolean isCharging() {
+		return charging;
+	}
+
+	private void update(Intent intent) {
+		int newLevel = (int) (intent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1) / (float)intent.getIntExtra(BatteryManager.EXTRA_SCALE, -1) * 100);
+		int status = intent.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
+		boolean newCharging = status == BatteryManager.BATTERY_STATUS_CHARGING || status == BatteryManager.BATTERY_STATUS_FULL;
+
+		if (newLevel == level && newCharging == charging) return;
+
+		level = newLevel;
+		charging = newCharging;
+		changes++;
+		Log.d("BT.update", "Battery changed: level=" + level + ", charging=" + charging);
+
+		Listener l = listener;
+		if (l != null) l.onBatteryChanged(level, charging);
+	}
+
+	@Override
+	public String toString() {
+		return "BatteryTracker[level=" + level + ", charging=" + charging + ", broadcasts=" + broadcasts + ", changes=" + changes + "]";
+	}
+}
@@ -14,6 +14,7 @@
  */
 package org.durka.hallmonitor;
 
+import android.app.Activity;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
@@ -109,11 +110,28 @@ public class ConfigurationFragment extends PreferenceFragment implements OnShare
 		} else if (key.equals("pref_runasroot")) {
 				
 			if (prefs.getBoolean(key, false)) {
-				if (!Functions.Actions.run_commands_as_root(new String[]{"whoami"}).equals("root")) {
-					// if "whoami" doesn't work, refuse to set preference
-					Toast.makeText(getActivity(), "Root access not granted - cannot enable root features!", Toast.LENGTH_SHORT).show();			  
-					prefs.edit().putBoolean(key, false).commit();
-				}
+				// we don't know what mode the touch screen was left in
+				Functions.touchSensitivity.reset();
+				
+				// su may be waiting on the user to grant access, so don't block the UI on it
+				final Activity act = getActivity();
+				final SharedPreferences fprefs = prefs;
+				final String fkey = key;
+				Functions.Actions.run_command_as_root("whoami", new RootShell.Callback() {
+					@Override
+					public void onResult(RootShell.Command cmd) {
+						if (!cmd.getOutput().equals("root")) {
+							act.runOnUiThread(new Runnable() {
+								@Override
+								public void run() {
+									// if "whoami" doesn't work, refuse to set preference
+									Toast.makeText(act, "Root access not granted - cannot enable root features!", Toast.LENGTH_SHORT).show();			  
+									fprefs.edit().putBoolean(fkey, false).commit();
+								}
+							});
+						}
+					}
+				});
 			}
 
 		} else if (key.equals("pref_do_notifications")) {
@@ -0,0 +1,78 @@
+/* Copyright 2013 Alex Burka
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.durka.hallmonitor;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.provider.ContactsContract;
+import android.telephony.PhoneNumberUtils;
+import android.util.Log;
+import android.util.LruCache;
+
+/**
+ * Caches caller names by phone number, so the ringing screen only queries the contacts provider once per caller.
+ * Numbers that aren't in the contacts are cached too (as an empty name), and shown as the number the way it was
+ * received. The whole cache is dropped whenever the contacts change.
+ */
+public class ContactNameCache extends LruCache<String, String> {
+
+	private static final int MAX_ENTRIES = 64;
+
+	//cached for numbers that aren't in the contacts (the cache can't hold null)
+	private static final String NOT_A_CONTACT = "";
+
+	private static ContactNameCache instance;
+
+	private final Context ctx;
+
+	private ContactNameCache(Context ctx) {
+		super(MAX_ENTRIES);
+		this.ctx = ctx;
+
+		ctx.getContentResolver().registerContentObserver(ContactsContract.Contacts.CONTENT_URI, true, new ContentObserver(null) {
+			@Override
+			public void onChange(boolean selfChange) {
+				Log.d("CNC.onChange", "Contacts changed, dropping cached names.");
+				evictAll();
+			}
+		});
+	}
+
+	/**
+	 * Get the shared cache.
+	 * @param ctx Context, only used the first time to set up the cache.
+	 * @return The cache.
+	 */
+	public static synchronized ContactNameCache getInstance(Context ctx) {
+		if (instance == null) instance = new ContactNameCache(ctx.getApplicationContext());
+		return instance;
+	}
+
+	/**
+	 * Look up the name for a number, querying the contacts on a miss.
+	 * @param number Phone number as received, separators and all.
+	 * @return Contact name, or the number if it isn't in the contacts.
+	 */
+	public String getName(String number) {
+		String name = get(PhoneNumberUtils.stripSeparators(number));
+		return name.length() > 0 ? name : number;
+	}
+
+	@Override
+	protected String create(String number) {
+		String name = Functions.Util.lookupContactName(ctx, number);
+		return name != null ? name : NOT_A_CONTACT;
+	}
+}
@@ -0,0 +1,97 @@
+/* Copyright 2013 Alex Burka
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.durka.hallmonitor;
+
+import android.content.Context;
+import android.content.res.ColorStateList;
+import android.graphics.ColorFilter;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffColorFilter;
+import android.graphics.drawable.Drawable;
+import android.util.LruCache;
+
+/**
+ * Caches the tinted background and the text color of the default cover screen, keyed by the background and
+ * foreground colors from the preferences, so showing the clock doesn't mean loading and tinting the drawable again.
+ * Each background is kept as the state of a mutated copy of R.drawable.rounded plus its tint, and every view gets
+ * its own drawable made from that, as a drawable can only call back to one view.
+ */
+public class CoverColorCache extends LruCache<Long, CoverColorCache.Colors> {
+
+	//the current colors plus a few recent ones, in case someone is trying colors out
+	private static final int MAX_ENTRIES = 4;
+
+	private static CoverColorCache instance;
+
+	private final Context ctx;
+
+	/**
+	 * Background and text color for one pair of colors.
+	 */
+	public static class Colors {
+		private final Drawable.ConstantState background;
+		//(a shape drawable's color filter isn't part of its state, so it is set on each new drawable)
+		private final ColorFilter tint;
+		public final ColorStateList text;
+
+		Colors(Drawable.ConstantState background, ColorFilter tint, ColorStateList text) {
+			this.background = background;
+			this.tint = tint;
+			this.text = text;
+		}
+
+		/**
+		 * A tinted background for one view.
+		 */
+		public Drawable newBackground() {
+			Drawable drawable = background.newDrawable();
+			drawable.setColorFilter(tint);
+			return drawable;
+		}
+	}
+
+	private CoverColorCache(Context ctx) {
+		super(MAX_ENTRIES);
+		this.ctx = ctx;
+	}
+
+	/**
+	 * Get the shared cache.
+	 * @param ctx Context, only used the first time to set up the cache.
+	 * @return The cache.
+	 */
+	public static synchronized CoverColorCache getInstance(Context ctx) {
+		if (instance == null) instance = new CoverColorCache(ctx.getApplicationContext());
+		return instance;
+	}
+
+	/**
+	 * Get the background and text color for a pair of colors, creating them on a miss.
+	 * @param bgColor Background color, multiplied into the rounded background.
+	 * @param fgColor Text color.
+	 * @return The colors.
+	 */
+	public Colors getColors(int bgColor, int fgColor) {
+		return get(((long)bgColor << 32) | (fgColor & 0xFFFFFFFFL));
+	}
+
+	@Override
+	protected Colors create(Long key) {
+		int bgColor = (int)(key >> 32), fgColor = (int)(long)key;
+
+		Drawable rounded = ctx.getResources().getDrawable(R.drawable.rounded).mutate();
+		return new Colors(rounded.getConstantState(), new PorterDuffColorFilter(bgColor, PorterDuff.Mode.MULTIPLY), ColorStateList.valueOf(fgColor));
+	}
+}
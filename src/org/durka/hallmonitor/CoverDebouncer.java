@@ -0,0 +1,113 @@
+/* Copyright 2013 Alex Burka
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.durka.hallmonitor;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Debounces proximity sensor changes before they are turned into cover checks.
+ * The first change after a quiet period is acted on straight away. Changes arriving within the settle
+ * window of the last one are coalesced: each one cancels the pending re-check and pushes it back, so
+ * a burst of flaps ends in a single check with the latest value once the sensor has settled.
+ */
+public class CoverDebouncer {
+
+	/**
+	 * Where the time comes from, so tests can drive it.
+	 */
+	interface Clock {
+		long uptimeMillis();
+	}
+
+	private static final Clock SYSTEM_CLOCK = new Clock() {
+		@Override
+		public long uptimeMillis() {
+			return SystemClock.uptimeMillis();
+		}
+	};
+
+	private final Context ctx;
+	private final Scheduler scheduler;
+	private final long settleWindow;
+	private final Clock clock;
+
+	//latest proximity value and when we got it
+	private volatile float value;
+	private long lastEvent = -1;
+
+	private Scheduler.Task pendingCheck;
+
+	private final Runnable check = new Runnable() {
+		@Override
+		public void run() {
+			Log.d("CD.check", "Sensor settled, checking cover with value: " + value);
+			checkCover(value);
+		}
+	};
+
+	/**
+	 * @param ctx Application context.
+	 * @param scheduler Scheduler to run the re-checks on.
+	 * @param settleWindow How long the sensor must be quiet, in milliseconds, before we check again.
+	 */
+	public CoverDebouncer(Context ctx, Scheduler scheduler, long settleWindow) {
+		this(ctx, scheduler, settleWindow, SYSTEM_CLOCK);
+	}
+
+	CoverDebouncer(Context ctx, Scheduler scheduler, long settleWindow, Clock clock) {
+		this.ctx = ctx;
+		this.scheduler = scheduler;
+		this.settleWindow = settleWindow;
+		this.clock = clock;
+	}
+
+	/**
+	 * Feed in a new proximity sensor value.
+	 * @param newValue Value of the proximity sensor.
+	 */
+	public void proximity(float newValue) {
+		long now = clock.uptimeMillis();
+		boolean settled = lastEvent < 0 || now - lastEvent >= settleWindow;
+
+		value = newValue;
+		lastEvent = now;
+
+		if (settled) {
+			//nothing happened for a while, so act now
+			checkCover(value);
+		}
+
+		//(re)schedule the single follow-up check, to catch the hall sensor lagging behind the proximity sensor
+		if (pendingCheck != null) pendingCheck.cancel();
+		pendingCheck = scheduler.schedule(check, settleWindow);
+	}
+
+	/**
+	 * Drop any pending re-check.
+	 */
+	public void cancel() {
+		if (pendingCheck != null) pendingCheck.cancel();
+		pendingCheck = null;
+	}
+
+	/**
+	 * Check the cover. Overridden in tests.
+	 */
+	void checkCover(float value) {
+		Functions.Events.proximity(ctx, value);
+	}
+}
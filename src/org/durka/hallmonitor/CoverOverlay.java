@@ -0,0 +1,204 @@
+/* Copyright 2013 Alex Burka
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.durka.hallmonitor;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.graphics.PixelFormat;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.ContextThemeWrapper;
+import android.view.View;
+import android.view.WindowManager;
+
+/**
+ * Shows the cover screen in a window of its own, owned by the service, instead of starting the default activity
+ * every time the cover closes. The window and its cover screen are created the first time they are needed and
+ * then just shown and hidden, so closing the cover again doesn't inflate or look up anything.
+ * The window goes over the lock screen, which needs the SYSTEM_ALERT_WINDOW permission.
+ * show() and hide() can be called from any thread, the work is done on the main thread.
+ */
+public class CoverOverlay {
+
+	//always: over the lock screen, fullscreen, never takes key focus away from whatever is behind
+	private static final int FLAGS = WindowManager.LayoutParams.FLAG_SHOW_WHEN_LOCKED
+			| WindowManager.LayoutParams.FLAG_FULLSCREEN
+			| WindowManager.LayoutParams.FLAG_LAYOUT_IN_SCREEN
+			| WindowManager.LayoutParams.FLAG_NOT_FOCUSABLE;
+	//while hidden: let touches through as well
+	private static final int HIDDEN_FLAGS = FLAGS | WindowManager.LayoutParams.FLAG_NOT_TOUCHABLE;
+
+	private final Context ctx;
+	private final WindowManager wm;
+	private final Handler handler = new Handler(Looper.getMainLooper());
+
+	private CoverScreen screen;
+	private WindowManager.LayoutParams params;
+	private boolean showing = false;
+
+	//stats
+	private int shows = 0, hides = 0;
+	private long showTotal = 0, hideTotal = 0;
+
+	//the activity gets stopped when the screen goes off, so do the same for the overlay
+	private final BroadcastReceiver screenOff = new BroadcastReceiver() {
+		@Override
+		public void onReceive(Context context, Intent intent) {
+			Log.d("CO.onReceive", "Screen off, hiding the overlay.");
+			hideNow.run();
+		}
+	};
+
+	private final Runnable showNow = new Runnable() {
+		@Override
+		public void run() {
+			if (showing) return;
+			long start = SystemClock.uptimeMillis();
+
+			build();
+			View root = screen.getView();
+			root.setVisibility(View.VISIBLE);
+			params.flags = FLAGS;
+			wm.updateViewLayout(root, params);
+
+			showing = true;
+			screen.start();
+			screen.refreshDisplay();
+
+			long took = SystemClock.uptimeMillis() - start;
+			shows++;
+			showTotal += took;
+			Log.d("CO.show", "Overlay shown in " + took + "ms, " + CoverOverlay.this);
+		}
+	};
+
+	private final Runnable hideNow = new Runnable() {
+		@Override
+		public void run() {
+			if (!showing) return;
+			long start = SystemClock.uptimeMillis();
+
+			screen.stop();
+			View root = screen.getView();
+			root.setVisibility(View.GONE);
+			params.flags = HIDDEN_FLAGS;
+			wm.updateViewLayout(root, params);
+			showing = false;
+
+			long took = SystemClock.uptimeMillis() - start;
+			hides++;
+			hideTotal += took;
+			Log.d("CO.hide", "Overlay hidden in " + took + "ms, " + CoverOverlay.this);
+
+			//if the overlay has been switched off, don't keep the cover screen around
+			if (!HallMonitorSettings.get(ctx).overlay) destroyNow.run();
+		}
+	};
+
+	private final Runnable prepareNow = new Runnable() {
+		@Override
+		public void run() {
+			if (showing) return;
+			long start = SystemClock.uptimeMillis();
+			boolean built = build();
+			//lay it out with the current widget while it's still hidden (invisible rather than gone, so it is laid out)
+			screen.refreshDisplay();
+			screen.getView().setVisibility(View.INVISIBLE);
+			Log.d("CO.prepare", (built ? "Built" : "Refreshed") + " the hidden overlay in " + (SystemClock.uptimeMillis() - start) + "ms");
+		}
+	};
+
+	private final Runnable destroyNow = new Runnable() {
+		@Override
+		public void run() {
+			hideNow.run();
+			if (screen != null) {
+				wm.removeView(screen.getView());
+				screen.destroy();
+				screen = null;
+			}
+		}
+	};
+
+	/**
+	 * @param ctx Service context.
+	 */
+	public CoverOverlay(Context ctx) {
+		this.ctx = new ContextThemeWrapper(ctx, R.style.FullscreenTheme);
+		wm = (WindowManager) ctx.getSystemService(Context.WINDOW_SERVICE);
+		ctx.registerReceiver(screenOff, new IntentFilter(Intent.ACTION_SCREEN_OFF));
+	}
+
+	/**
+	 * Show the cover screen, creating it the first time.
+	 */
+	public void show() {
+		run(showNow);
+	}
+
+	/**
+	 * Build the window and its cover screen, if they aren't already, and bring it up to date without showing it,
+	 * because the cover is about to close.
+	 */
+	public void prepare() {
+		run(prepareNow);
+	}
+
+	/**
+	 * Hide the cover screen, keeping it for next time.
+	 */
+	public void hide() {
+		run(hideNow);
+	}
+
+	/**
+	 * Get rid of the window and the cover screen, e.g. because the service is stopping.
+	 */
+	public void destroy() {
+		ctx.unregisterReceiver(screenOff);
+		run(destroyNow);
+	}
+
+	//first time, build the window, hidden; returns whether it had to
+	private boolean build() {
+		if (screen != null) return false;
+		screen = new CoverScreen(ctx);
+		View root = screen.getView();
+		root.setVisibility(View.GONE);
+		params = new WindowManager.LayoutParams(
+				WindowManager.LayoutParams.MATCH_PARENT, WindowManager.LayoutParams.MATCH_PARENT,
+				WindowManager.LayoutParams.TYPE_SYSTEM_ERROR, HIDDEN_FLAGS, PixelFormat.TRANSLUCENT);
+		wm.addView(root, params);
+		return true;
+	}
+
+	private void run(Runnable r) {
+		if (Looper.myLooper() == Looper.getMainLooper()) {
+			r.run();
+		} else {
+			handler.post(r);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "CoverOverlay[shows=" + shows + " avg " + (shows > 0 ? showTotal / shows : 0) + "ms"
+				+ ", hides=" + hides + " avg " + (hides > 0 ? hideTotal / hides : 0) + "ms]";
+	}
+}
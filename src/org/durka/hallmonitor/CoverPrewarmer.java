@@ -0,0 +1,169 @@
+/* Copyright 2013 Alex Burka
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.durka.hallmonitor;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Gets the cover screen's state ready as soon as the proximity sensor says something is near, which is usually
+ * a little before the hall effect sensor says the cover is closed: loads the settings and saved widget ids,
+ * syncs the notifications, creates the widget views and starts the widgets listening for updates, and in overlay
+ * mode builds the hidden cover screen and lays it out with its widget.
+ * If the cover doesn't close after all, the widgets stop listening again; everything else is cached anyway
+ * so it costs nothing to keep.
+ * Also times each cover close to the first frame of the cover screen, split by whether it had been pre-warmed.
+ * Call near() and far() on the main thread.
+ */
+public class CoverPrewarmer {
+
+	//how long a pre-warm stays good for if the cover doesn't close
+	private static final long COOL_DOWN = 3000;
+
+	private final Context ctx;
+	private final Handler handler = new Handler();
+
+	private volatile long warmedAt = -1;
+
+	//when the cover last closed, and whether we were warmed up for it
+	private static volatile long closedAt = -1;
+	private static volatile boolean closedWarm = false;
+	private static volatile CoverPrewarmer current;
+
+	//stats, only touched on the main thread
+	private static int warmCloses = 0, coldCloses = 0;
+	private static long warmTotal = 0, coldTotal = 0;
+
+	private final Runnable widgets = new Runnable() {
+		@Override
+		public void run() {
+			if (NotificationService.that != null) Functions.Actions.sync_notifications(ctx);
+
+			//create the widget views now, rather than while the cover screen is coming up
+			HMAppWidgetManager manager = Functions.hmAppWidgetManager;
+			if (manager.doesWidgetExist(ctx, "default")) manager.getAppWidgetHostViewByType(ctx, "default");
+			if (manager.doesWidgetExist(ctx, "media")) manager.getAppWidgetHostViewByType(ctx, "media");
+			manager.startListening(ctx);
+
+			//in overlay mode, build the cover screen's views and attach the widget as well
+			//(an activity can't be built until it is started, so there's nothing more to do for the default activity)
+			CoverOverlay overlay = Functions.coverOverlay;
+			if (HallMonitorSettings.get(ctx).overlay && overlay != null) overlay.prepare();
+
+			Log.d("CP.warm", "Pre-warmed in " + (SystemClock.uptimeMillis() - warmedAt) + "ms");
+		}
+	};
+
+	private final Runnable coolDown = new Runnable() {
+		@Override
+		public void run() {
+			if (warmedAt < 0) return;
+			warmedAt = -1;
+
+			if (!CoverScreen.on_screen) {
+				Log.d("CP.coolDown", "Cover didn't close, dropping the pre-warm.");
+				Functions.hmAppWidgetManager.stopListening();
+			}
+		}
+	};
+
+	/**
+	 * @param ctx Application context.
+	 */
+	public CoverPrewarmer(Context ctx) {
+		this.ctx = ctx;
+		current = this;
+	}
+
+	/**
+	 * Something is near the proximity sensor, the cover may be about to close.
+	 */
+	public void near() {
+		handler.removeCallbacks(coolDown);
+		handler.postDelayed(coolDown, COOL_DOWN);
+
+		if (warmedAt >= 0 || CoverScreen.on_screen) return;
+		warmedAt = SystemClock.uptimeMillis();
+		Log.d("CP.near", "Proximity near, pre-warming the cover screen.");
+
+		//the disk reads go on the background thread, then the rest on the main thread
+		Functions.background.execute(new Runnable() {
+			@Override
+			public void run() {
+				HallMonitorSettings.get(ctx);
+				Functions.hmAppWidgetManager.restore(ctx);
+				handler.post(widgets);
+			}
+		});
+	}
+
+	/**
+	 * Nothing is near the proximity sensor any more.
+	 */
+	public void far() {
+		handler.removeCallbacks(coolDown);
+		coolDown.run();
+	}
+
+	/**
+	 * Drop any pending work.
+	 */
+	public void cancel() {
+		handler.removeCallbacks(widgets);
+		handler.removeCallbacks(coolDown);
+		if (current == this) current = null;
+	}
+
+	private boolean isWarm() {
+		return warmedAt >= 0 && SystemClock.uptimeMillis() - warmedAt < COOL_DOWN;
+	}
+
+	/**
+	 * The cover has just closed, start timing.
+	 */
+	public static void closing() {
+		CoverPrewarmer prewarmer = current;
+		closedWarm = prewarmer != null && prewarmer.isWarm();
+		closedAt = SystemClock.uptimeMillis();
+	}
+
+	/**
+	 * The cover screen has drawn its first frame since the cover closed.
+	 */
+	public static void drawn() {
+		if (closedAt < 0) return;
+		long latency = SystemClock.uptimeMillis() - closedAt;
+		closedAt = -1;
+
+		if (closedWarm) {
+			warmCloses++;
+			warmTotal += latency;
+		} else {
+			coldCloses++;
+			coldTotal += latency;
+		}
+		Log.d("CP.drawn", "Close to first frame: " + latency + "ms (" + (closedWarm ? "warm" : "cold") + "), " + stats());
+	}
+
+	/**
+	 * Average close to first frame times so far.
+	 */
+	public static String stats() {
+		return "warm=" + warmCloses + "x" + (warmCloses > 0 ? warmTotal / warmCloses : 0) + "ms"
+				+ ", cold=" + coldCloses + "x" + (coldCloses > 0 ? coldTotal / coldCloses : 0) + "ms";
+	}
+}
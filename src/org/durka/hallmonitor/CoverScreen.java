@@ -0,0 +1,632 @@
+/* Copyright 2013 Alex Burka
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.durka.hallmonitor;
+
+import android.appwidget.AppWidgetHostView;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Debug;
+import android.telephony.TelephonyManager;
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
+import android.widget.ImageButton;
+import android.widget.ImageView;
+import android.widget.RelativeLayout;
+import android.widget.TextClock;
+import android.widget.TextView;
+
+/**
+ * The screen shown through the window of the cover: clock or widget, notifications, and the alarm and phone controls.
+ * It doesn't care what it is shown in: DefaultActivity puts it in an activity that is started every time the cover
+ * closes, the CoverOverlay keeps one in a window owned by the service and just shows and hides it.
+ * Use it on the main thread only.
+ */
+public class CoverScreen {
+
+	public static boolean on_screen;
+
+	// states for alarm and phone
+	public static boolean alarm_firing = false;
+	public static boolean phone_ringing = false;
+	public static String call_from = "";
+	//contact name for call_from, filled in off the UI thread, null until then
+	public static volatile String call_from_name = null;
+
+	//Action fired when alarm goes off
+	public static final String ALARM_ALERT_ACTION = "com.android.deskclock.ALARM_ALERT";
+	//Action to trigger snooze of the alarm
+	public static final String ALARM_SNOOZE_ACTION = "com.android.deskclock.ALARM_SNOOZE";
+	//Action to trigger dismiss of the alarm
+	public static final String ALARM_DISMISS_ACTION = "com.android.deskclock.ALARM_DISMISS";
+	//This action should let us know if the alarm has been killed by another app
+	public static final String ALARM_DONE_ACTION = "com.android.deskclock.ALARM_DONE";
+
+	private final Context ctx;
+	private final HMAppWidgetManager hmAppWidgetManager = Functions.hmAppWidgetManager;
+
+	//tinted backgrounds for the clock
+	private final CoverColorCache colorCache;
+
+	//tells us when to show the media widget
+	private final MediaStateTracker media;
+
+	//tells us the battery level and charging state
+	private final BatteryTracker battery;
+
+	//all the views we need
+	private final View root;
+	private final NotificationStrip notificationStrip;
+	private final RelativeLayout defaultWidget;
+	private final RelativeLayout defaultContent;
+	private final View contentAlarm, contentPhone, contentNormal;
+	private final TextClock defaultTextClock;
+	private final TextView callFrom;
+	private final ImageView batteryPicture;
+	private final TextView batteryPercent;
+	public final ImageButton torchButton;
+	//what the widget area holds when there is no widget to show
+	private final View[] clockViews;
+	//draws the clock, battery and notifications by itself when the low power clock is on, made when first needed
+	private AmbientClockView ambientClock;
+	//where the notification icons come from, kept for when the ambient clock is made
+	private NotificationStrip.IconSource notificationSource;
+
+	//the state the views are showing, null until the first refresh
+	private CoverState rendered;
+	//the battery state the views are showing, -1 until the first update
+	private int shownLevel = -1;
+	private boolean shownCharging = false;
+
+	//stats
+	private int renders = 0;
+	private int mutations = 0;
+	private int frames = 0;
+
+	//we need to hide the cover screen when the screen turns on with the cover open
+	private final BroadcastReceiver receiver = new BroadcastReceiver() {
+		@Override
+		public void onReceive(Context context, Intent intent) {
+			if (intent.getAction().equals(Intent.ACTION_SCREEN_ON)) {
+
+				Log.d("CS.onReceive", "Screen on event received.");
+
+				if (Functions.Is.cover_closed(context)) {
+					Log.d("CS.onReceive", "Cover is closed, display cover screen.");
+					//easiest way to do this is actually just to invoke the close_cover action as it does what we want
+					Functions.Actions.close_cover(context.getApplicationContext());
+				} else {
+					Log.d("CS.onReceive", "Cover is open, hiding cover screen.");
+
+					// when the cover opens, the fullscreen cover screen goes poof
+					Functions.Actions.hide_cover(context.getApplicationContext());
+				}
+
+			} else if (intent.getAction().equals("org.durka.hallmonitor.debug")) {
+				Log.d("CS.onReceive", "received debug intent");
+				Log.d("CS.onReceive", "delayed actions: " + Functions.scheduler);
+				Log.d("CS.onReceive", "background work: " + Functions.background);
+				Log.d("CS.onReceive", "close to first frame: " + CoverPrewarmer.stats());
+				Log.d("CS.onReceive", "show/hide times: " + CoverTiming.stats());
+				Log.d("CS.onReceive", "widget host: " + hmAppWidgetManager.mAppWidgetHost);
+				Log.d("CS.onReceive", "notification refreshes: " + Functions.Actions.notificationRefresh);
+				Log.d("CS.onReceive", "cover screen: " + renderStats() + ", " + rendered);
+				Log.d("CS.onReceive", "cover colors: " + colorCache);
+				Log.d("CS.onReceive", "battery: " + battery);
+				Log.d("CS.onReceive", "ambient clock: " + ambientClock);
+				Log.d("CS.onReceive", "notification strip: measures=" + notificationStrip.getMeasureCount() + ", layouts=" + notificationStrip.getLayoutCount());
+				Log.d("CS.onReceive", "contact names: " + ContactNameCache.getInstance(context));
+				Log.d("CS.onReceive", "notification icons: " + NotificationIconCache.getInstance(context) + ", evictions=" + NotificationIconCache.getInstance(context).evictionCount());
+				// test intent to show/hide a notification
+				switch (intent.getIntExtra("notif", 0)) {
+				case 1:
+					Functions.Actions.debug_notification(context, true);
+					break;
+				case 2:
+					Functions.Actions.debug_notification(context, false);
+					break;
+				}
+				// count allocations on the main thread over some frames, to compare the ambient clock with the layout
+				switch (intent.getIntExtra("allocs", 0)) {
+				case 1:
+					frames = 0;
+					Debug.resetThreadAllocCount();
+					Debug.startAllocCounting();
+					break;
+				case 2:
+					Debug.stopAllocCounting();
+					Log.d("CS.onReceive", "allocations: " + Debug.getThreadAllocCount() + " (" + Debug.getThreadAllocSize() + " bytes) over " + frames + " frames");
+					break;
+				}
+			}
+		}
+	};
+
+	//alarm and phone events, registered for as long as the cover screen lives so an alarm or call that starts
+	//before it shows isn't missed (call_finished checks the cover is still closed before bringing it back)
+	private final BroadcastReceiver callReceiver = new BroadcastReceiver() {
+		@Override
+		public void onReceive(Context context, Intent intent) {
+			if (intent.getAction().equals(ALARM_ALERT_ACTION)) {
+
+				Log.d("CS.callReceiver", "Alarm on event received.");
+
+				//only take action if alarm controls are enabled
+				if (HallMonitorSettings.get(context).alarmControls) {
+
+					Log.d("CS.callReceiver", "Alarm controls are enabled, taking action.");
+
+					//set the alarm firing state
+					alarm_firing=true;
+
+					//if the cover is closed then
+					//we want to pop the cover screen up over the top of the alarm activity
+					//to guarantee that we need to hold off until the alarm activity is running
+					//a 1 second delay seems to allow this
+					if (Functions.Is.cover_closed(context)) {
+						final Context appCtx = context.getApplicationContext();
+						Functions.scheduler.schedule(new Runnable() {
+							@Override
+							public void run() {
+								Functions.Actions.bring_cover_to_front(appCtx);
+							}
+						}, 1000);
+					}
+				} else {
+					Log.d("CS.callReceiver", "Alarm controls are not enabled.");
+				}
+
+			} else if (intent.getAction().equals(ALARM_DONE_ACTION) ) {
+
+					Log.d("CS.callReceiver", "Alarm done event received.");
+
+					//if the alarm is turned off using the normal alarm screen this will
+					//ensure that we will hide the alarm controls
+					alarm_firing=false;
+
+			} else if (intent.getAction().equals(TelephonyManager.ACTION_PHONE_STATE_CHANGED)) {
+
+				if (HallMonitorSettings.get(context).phoneControls) {
+					String state = intent.getStringExtra(TelephonyManager.EXTRA_STATE);
+					Log.d("phone", "phone state changed to " + state);
+					if (state.equals(TelephonyManager.EXTRA_STATE_RINGING)) {
+						Functions.Events.incoming_call(context, intent.getStringExtra(TelephonyManager.EXTRA_INCOMING_NUMBER));
+					} else {
+						if (state.equals(TelephonyManager.EXTRA_STATE_IDLE)) {
+							Functions.Events.call_finished(context);
+							refreshDisplay();
+						}
+					}
+				} else {
+					Log.d("phone", "phone controls are not enabled");
+				}
+			}
+		}
+	};
+
+	/**
+	 * Build the cover screen's views and start listening for the events it cares about.
+	 * @param ctx Context to build the views with, it needs a theme.
+	 */
+	public CoverScreen(Context ctx) {
+		this.ctx = ctx;
+
+		//get the audio manager
+		media = MediaStateTracker.getInstance(ctx);
+
+		battery = BatteryTracker.getInstance(ctx);
+
+		colorCache = CoverColorCache.getInstance(ctx);
+
+		root = LayoutInflater.from(ctx).inflate(R.layout.activity_default, null);
+
+		//get the views we need
+		notificationStrip = (NotificationStrip)root.findViewById(R.id.default_icon_container);
+		defaultWidget = (RelativeLayout) root.findViewById(R.id.default_widget);
+		defaultContent = (RelativeLayout) root.findViewById(R.id.default_content);
+		contentAlarm = root.findViewById(R.id.default_content_alarm);
+		contentPhone = root.findViewById(R.id.default_content_phone);
+		contentNormal = root.findViewById(R.id.default_content_normal);
+		defaultTextClock = (TextClock) root.findViewById(R.id.default_text_clock);
+		callFrom = (TextView) root.findViewById(R.id.call_from);
+		batteryPicture = (ImageView) root.findViewById(R.id.default_battery_picture);
+		batteryPercent = (TextView) root.findViewById(R.id.default_battery_percent);
+		torchButton = (ImageButton) root.findViewById(R.id.torchbutton);
+
+		clockViews = new View[defaultWidget.getChildCount()];
+		for (int i = 0; i < clockViews.length; i++) clockViews[i] = defaultWidget.getChildAt(i);
+
+		//count frames, for the allocation stats
+		root.getViewTreeObserver().addOnDrawListener(new ViewTreeObserver.OnDrawListener() {
+			@Override
+			public void onDraw() {
+				frames++;
+			}
+		});
+
+		//hook up the buttons
+		root.findViewById(R.id.snoozebutton).setOnClickListener(new View.OnClickListener() {
+			@Override
+			public void onClick(View v) {
+				sendSnooze();
+			}
+		});
+		root.findViewById(R.id.dismissbutton).setOnClickListener(new View.OnClickListener() {
+			@Override
+			public void onClick(View v) {
+				sendDismiss();
+			}
+		});
+		root.findViewById(R.id.hangup_button).setOnClickListener(new View.OnClickListener() {
+			@Override
+			public void onClick(View v) {
+				Functions.Actions.hangup_call();
+			}
+		});
+		root.findViewById(R.id.pickup_button).setOnClickListener(new View.OnClickListener() {
+			@Override
+			public void onClick(View v) {
+				Functions.Actions.pickup_call();
+			}
+		});
+		torchButton.setOnClickListener(new View.OnClickListener() {
+			@Override
+			public void onClick(View v) {
+				Functions.Actions.toggle_torch(CoverScreen.this);
+			}
+		});
+
+		//add screen on and debug intent receiver
+		IntentFilter filter = new IntentFilter();
+		filter.addAction(Intent.ACTION_SCREEN_ON);
+		filter.addAction("org.durka.hallmonitor.debug");
+		ctx.registerReceiver(receiver, filter);
+
+		//add alarm fired and phone state receiver
+		IntentFilter callFilter = new IntentFilter();
+		callFilter.addAction(ALARM_ALERT_ACTION);
+		callFilter.addAction(ALARM_DONE_ACTION);
+		callFilter.addAction(TelephonyManager.ACTION_PHONE_STATE_CHANGED);
+		ctx.registerReceiver(callReceiver, callFilter);
+	}
+
+	public View getView() {
+		return root;
+	}
+
+	public Context getContext() {
+		return ctx;
+	}
+
+	/**
+	 * The cover screen is about to become visible.
+	 */
+	public void start() {
+		on_screen = true;
+		Functions.coverScreen = this;
+
+		// we might have missed a phone-state revelation while we weren't showing
+		phone_ringing = ((TelephonyManager)ctx.getSystemService(Context.TELEPHONY_SERVICE)).getCallState() == TelephonyManager.CALL_STATE_RINGING;
+
+		//keep the widgets up to date only while they can be seen
+		hmAppWidgetManager.startListening(ctx);
+
+		//time how long it took from the cover closing (and from being asked to show) to us being drawn
+		root.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+			@Override
+			public boolean onPreDraw() {
+				root.getViewTreeObserver().removeOnPreDrawListener(this);
+				CoverPrewarmer.drawn();
+				CoverTiming.shown(inOverlay());
+				return true;
+			}
+		});
+
+		updateBattery();
+		//and keep it up to date while we're showing
+		battery.setListener(new BatteryTracker.Listener() {
+			@Override
+			public void onBatteryChanged(int level, boolean charging) {
+				updateBattery();
+			}
+		});
+
+		//switch between the media and default widgets as soon as the media state changes
+		media.setListener(new MediaStateTracker.Listener() {
+			@Override
+			public void onMediaStateChanged() {
+				refreshDisplay();
+			}
+		});
+		//(not every player tells us when it starts or stops, so check once now)
+		media.refresh();
+
+		if (ambientClock != null && ambientClock.getVisibility() == View.VISIBLE) ambientClock.start();
+
+		if (NotificationService.that != null) {
+			// notification listener service is running, show the current notifications
+			Functions.Actions.setup_notifications(this);
+		}
+	}
+
+	/**
+	 * The cover screen has been hidden.
+	 */
+	public void stop() {
+		media.setListener(null);
+		battery.setListener(null);
+		if (ambientClock != null) ambientClock.stop();
+		Functions.Actions.teardown_notifications();
+		hmAppWidgetManager.stopListening();
+		if (Functions.Actions.lockTask != null) {
+			Functions.Actions.lockTask.cancel();
+		}
+		on_screen = false;
+		CoverTiming.hidden(inOverlay());
+	}
+
+	//the default activity builds us with itself, the overlay with a themed service context
+	private boolean inOverlay() {
+		return !(ctx instanceof DefaultActivity);
+	}
+
+	/**
+	 * The cover screen won't be used again.
+	 */
+	public void destroy() {
+		//tidy up our receivers
+		ctx.unregisterReceiver(receiver);
+		ctx.unregisterReceiver(callReceiver);
+		if (Functions.coverScreen == this) Functions.coverScreen = null;
+	}
+
+	/**
+	 * Refresh the display taking account of device and application state
+	 */
+	public void refreshDisplay() {
+		render(currentState());
+	}
+
+	/**
+	 * Work out what the cover screen should look like right now
+	 */
+	private CoverState currentState() {
+
+		HallMonitorSettings settings = HallMonitorSettings.get(ctx);
+
+		//if the alarm is firing then show the alarm controls, otherwise
+		//if the phone is ringing then show the phone controls, otherwise
+		//if we have a media app widget and media is playing or headphones are connected then display that, otherwise
+		//if we have a default app widget to use then display that, if not then display our default clock screen
+		if (alarm_firing) {
+			return new CoverState(CoverState.MODE_ALARM, lastWidget(), settings.defaultBgColor, settings.defaultFgColor, null, settings.flashControls, settings.ambientClock);
+
+		} else if (phone_ringing) {
+
+			if (call_from_name == null) {
+				// we missed the incoming call event, so look the caller up now (off the UI thread)
+				Functions.Events.lookup_caller(ctx.getApplicationContext(), call_from);
+			}
+			return new CoverState(CoverState.MODE_PHONE, lastWidget(), settings.defaultBgColor, settings.defaultFgColor, caller(), settings.flashControls, settings.ambientClock);
+
+		} else {
+			String widgetType = "default";
+			if (hmAppWidgetManager.doesWidgetExist(ctx, "media") && media.isActive()) {
+				widgetType = "media";
+			}
+
+			//(getting the widget creates its view, if this is the first time since the app started)
+			AppWidgetHostView hostView = null;
+			if (hmAppWidgetManager.doesWidgetExist(ctx, widgetType)) {
+				hostView = hmAppWidgetManager.getAppWidgetHostViewByType(ctx, widgetType);
+			}
+			return new CoverState(CoverState.MODE_NORMAL, hostView, settings.defaultBgColor, settings.defaultFgColor, null, settings.flashControls, settings.ambientClock);
+		}
+	}
+
+	//leave whatever widget we had alone while the alarm or phone controls are up
+	private AppWidgetHostView lastWidget() {
+		return rendered != null ? rendered.widget : null;
+	}
+
+	//who is calling, by name if we have looked it up already or by number until then
+	private String caller() {
+		String name = call_from_name;
+		if (name != null) return name;
+		return call_from != null && call_from.length() > 0 ? call_from : ctx.getString(R.string.unknown_caller);
+	}
+
+	/**
+	 * Bring the views in line with the given state, only touching the ones that need to change
+	 */
+	void render(CoverState state) {
+		CoverState last = rendered;
+		int before = mutations;
+
+		if (last == null || state.torch != last.torch) {
+			//hide or show the torch button as required
+			torchButton.setVisibility(state.torch ? View.VISIBLE : View.INVISIBLE);
+			mutations++;
+		}
+
+		if (last == null || state.mode != last.mode) {
+			contentAlarm.setVisibility(state.mode == CoverState.MODE_ALARM ? View.VISIBLE : View.INVISIBLE);
+			contentPhone.setVisibility(state.mode == CoverState.MODE_PHONE ? View.VISIBLE : View.INVISIBLE);
+			contentNormal.setVisibility(state.mode == CoverState.MODE_NORMAL ? View.VISIBLE : View.INVISIBLE);
+			mutations += 3;
+		}
+
+		if (state.caller != null && (last == null || !state.caller.equals(last.caller))) {
+			callFrom.setText(state.caller);
+			mutations++;
+		}
+
+		//the ambient clock stands in for our clock and the notification icons, but not for a widget
+		boolean ambient = state.ambient && state.widget == null;
+		boolean wasAmbient = last != null && last.ambient && last.widget == null;
+
+		if (last == null || state.widget != last.widget || ambient != wasAmbient) {
+			//swap the widget (or our clock) in
+			defaultWidget.removeAllViews();
+			if (state.widget != null) {
+				//if the widget host view already has a parent then we need to detach it
+				ViewGroup parent = (ViewGroup)state.widget.getParent();
+				if (parent != null) {
+					Log.d("CS.render", "hostView had already been added to a group, detaching it.");
+					parent.removeView(state.widget);
+				}
+				defaultWidget.addView(state.widget);
+			} else if (!ambient) {
+				for (View v : clockViews) defaultWidget.addView(v);
+			}
+			mutations += 2;
+		}
+
+		if (last == null || ambient != wasAmbient) {
+			if (ambient && ambientClock == null) {
+				ambientClock = new AmbientClockView(ctx);
+				ambientClock.setColor(state.fgColor);
+				ambientClock.setSource(notificationSource);
+				((ViewGroup)contentNormal).addView(ambientClock, 0, new ViewGroup.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
+				updateBattery();
+			}
+			if (ambientClock != null) {
+				ambientClock.setVisibility(ambient ? View.VISIBLE : View.GONE);
+				if (ambient && on_screen) {
+					ambientClock.start();
+				} else {
+					ambientClock.stop();
+				}
+			}
+			//(invisible rather than gone, the torch button is lined up with the widget area)
+			defaultWidget.setVisibility(ambient ? View.INVISIBLE : View.VISIBLE);
+			notificationStrip.setVisibility(ambient ? View.INVISIBLE : View.VISIBLE);
+			mutations += 3;
+		}
+
+		//our colors only apply to the clock, widgets bring their own
+		if (state.widget == null && (last == null || last.widget != null
+				|| state.bgColor != last.bgColor || state.fgColor != last.fgColor)) {
+			CoverColorCache.Colors colors = colorCache.getColors(state.bgColor, state.fgColor);
+			defaultContent.setBackground(colors.newBackground());
+			defaultTextClock.setTextColor(colors.text);
+			if (ambientClock != null) ambientClock.setColor(state.fgColor);
+			mutations += 2;
+		}
+
+		rendered = state;
+		renders++;
+		Log.d("CS.render", "Rendered " + state + " with " + (mutations - before) + " view changes");
+	}
+
+	/**
+	 * Show who is calling, by name if we have looked it up already or by number until then
+	 */
+	public void showCaller() {
+		refreshDisplay();
+	}
+
+	/**
+	 * How many times the views have been rendered, and how many changes that took
+	 */
+	public String renderStats() {
+		return "renders=" + renders + ", view changes=" + mutations;
+	}
+
+	public int getRenderCount() {
+		return renders;
+	}
+
+	public int getMutationCount() {
+		return mutations;
+	}
+
+	/**
+	 * Find the notification icon row
+	 */
+	public NotificationStrip getNotificationStrip() {
+		return notificationStrip;
+	}
+
+	/**
+	 * Show the notification icons from the given source, in the icon row and the ambient clock
+	 */
+	public void setNotificationSource(NotificationStrip.IconSource source) {
+		notificationSource = source;
+		notificationStrip.setSource(source);
+		if (ambientClock != null) ambientClock.setSource(source);
+	}
+
+	/**
+	 * Rebind every notification icon, e.g. because notifications came or went
+	 */
+	public void refreshNotifications() {
+		notificationStrip.refresh();
+		if (ambientClock != null) ambientClock.refresh();
+	}
+
+	/**
+	 * Rebind the icon for one notification
+	 */
+	public void refreshNotification(int position) {
+		notificationStrip.refresh(position);
+		if (ambientClock != null) ambientClock.refresh(position);
+	}
+
+	private void updateBattery() {
+		int level = battery.getLevel();
+		boolean charging = battery.isCharging();
+		if (level < 0) return; //haven't heard from the battery yet
+
+		//only touch the views for what changed since they were last updated
+		if (shownLevel < 0 || charging != shownCharging) {
+			batteryPicture.setImageResource(charging ? R.drawable.stat_sys_battery_charge : R.drawable.stat_sys_battery);
+			shownCharging = charging;
+			shownLevel = -1; //the new drawable needs its level set
+		}
+		if (level != shownLevel) {
+			batteryPicture.getDrawable().setLevel(level);
+			batteryPercent.setText(Integer.toString(level) + "%");
+			shownLevel = level;
+		}
+		if (ambientClock != null) ambientClock.setBattery(level, charging);
+	}
+
+	/** Called when the user touches the snooze button */
+	private void sendSnooze() {
+		// Broadcast alarm snooze event
+		Intent alarmSnooze = new Intent(ALARM_SNOOZE_ACTION);
+		ctx.sendBroadcast(alarmSnooze);
+		//unset alarm firing flag
+		alarm_firing = false;
+		//refresh the display
+		refreshDisplay();
+	}
+
+	/** Called when the user touches the dismiss button */
+	private void sendDismiss() {
+		// Broadcast alarm dismiss event
+		Intent alarmDismiss = new Intent(ALARM_DISMISS_ACTION);
+		ctx.sendBroadcast(alarmDismiss);
+		//unset alarm firing flag
+		alarm_firing = false;
+		//refresh the display
+		refreshDisplay();
+	}
+}
@@ -0,0 +1,57 @@
+/* Copyright 2013 Alex Burka
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.durka.hallmonitor;
+
+import android.appwidget.AppWidgetHostView;
+
+/**
+ * What the cover screen should look like: which controls are up, which widget (if any) is showing, the colors
+ * and the caller. The CoverScreen works out one of these on each refresh and only touches the views for the
+ * parts that differ from the last one it rendered.
+ */
+public class CoverState {
+
+	public static final int MODE_NORMAL = 0;
+	public static final int MODE_ALARM = 1;
+	public static final int MODE_PHONE = 2;
+
+	public final int mode;
+	//the widget to show in normal mode, or null for our clock
+	public final AppWidgetHostView widget;
+	public final int bgColor;
+	public final int fgColor;
+	//who is calling in phone mode, null otherwise
+	public final String caller;
+	public final boolean torch;
+	//draw the clock with the ambient clock view rather than the layout
+	public final boolean ambient;
+
+	public CoverState(int mode, AppWidgetHostView widget, int bgColor, int fgColor, String caller, boolean torch, boolean ambient) {
+		this.mode = mode;
+		this.widget = widget;
+		this.bgColor = bgColor;
+		this.fgColor = fgColor;
+		this.caller = caller;
+		this.torch = torch;
+		this.ambient = ambient;
+	}
+
+	@Override
+	public String toString() {
+		return "CoverState[mode=" + mode + ", widget=" + (widget != null ? widget.getAppWidgetId() : "clock")
+				+ ", bg=" + Integer.toHexString(bgColor) + ", fg=" + Integer.toHexString(fgColor)
+				+ ", caller=" + caller + ", torch=" + torch + ", ambient=" + ambient + "]";
+	}
+}
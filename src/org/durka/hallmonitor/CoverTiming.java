@@ -0,0 +1,122 @@
+/* Copyright 2013 Alex Burka
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.durka.hallmonitor;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Times showing and hiding the cover screen, from the request to the first frame drawn and to the screen being
+ * stopped, split by whether it is shown in the overlay window or in the default activity, so the two can be compared.
+ */
+public class CoverTiming {
+
+	//when the cover screen was last asked to show or hide, -1 once that has been timed
+	private static volatile long showAt = -1;
+	private static volatile long hideAt = -1;
+
+	//stats, only changed on the main thread
+	private static final Average overlayShow = new Average(), activityShow = new Average();
+	private static final Average overlayHide = new Average(), activityHide = new Average();
+
+	private static class Average {
+		volatile int count = 0;
+		volatile long total = 0;
+
+		void add(long ms) {
+			count++;
+			total += ms;
+		}
+
+		@Override
+		public String toString() {
+			return count + "x" + (count > 0 ? total / count : 0) + "ms";
+		}
+	}
+
+	/**
+	 * The cover screen has been asked to show.
+	 */
+	public static void showing() {
+		if (CoverScreen.on_screen) return; //nothing to time
+		showAt = SystemClock.uptimeMillis();
+	}
+
+	/**
+	 * The cover screen has drawn its first frame since it was started.
+	 * @param overlay Whether it is in the overlay window.
+	 */
+	public static void shown(boolean overlay) {
+		long at = showAt;
+		if (at < 0) return;
+		showAt = -1;
+
+		long took = SystemClock.uptimeMillis() - at;
+		(overlay ? overlayShow : activityShow).add(took);
+		Log.d("CT.shown", "Shown in " + took + "ms (" + (overlay ? "overlay" : "activity") + "), " + stats());
+	}
+
+	/**
+	 * The cover screen has been asked to hide.
+	 */
+	public static void hiding() {
+		if (!CoverScreen.on_screen) return;
+		hideAt = SystemClock.uptimeMillis();
+	}
+
+	/**
+	 * The cover screen has been stopped.
+	 * @param overlay Whether it is in the overlay window.
+	 */
+	public static void hidden(boolean overlay) {
+		long at = hideAt;
+		if (at < 0) return;
+		hideAt = -1;
+
+		long took = SystemClock.uptimeMillis() - at;
+		(overlay ? overlayHide : activityHide).add(took);
+		Log.d("CT.hidden", "Hidden in " + took + "ms (" + (overlay ? "overlay" : "activity") + "), " + stats());
+	}
+
+	public static int getShowCount(boolean overlay) {
+		return (overlay ? overlayShow : activityShow).count;
+	}
+
+	/**
+	 * Total of the show times so far, in milliseconds.
+	 */
+	public static long getShowTime(boolean overlay) {
+		return (overlay ? overlayShow : activityShow).total;
+	}
+
+	public static int getHideCount(boolean overlay) {
+		return (overlay ? overlayHide : activityHide).count;
+	}
+
+	/**
+	 * Total of the hide times so far, in milliseconds.
+	 */
+	public static long getHideTime(boolean overlay) {
+		return (overlay ? overlayHide : activityHide).total;
+	}
+
+	/**
+	 * Average show and hide times so far, for each way of showing the cover screen.
+	 */
+	public static String stats() {
+		return "show: overlay=" + overlayShow + ", activity=" + activityShow
+				+ "; hide: overlay=" + overlayHide + ", activity=" + activityHide;
+	}
+}
@@ -0,0 +1,84 @@
+/* Copyright 2013 Alex Burka
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.durka.hallmonitor;
+
+import java.io.File;
+
+import android.content.Context;
+import android.os.FileObserver;
+import android.util.Log;
+
+/**
+ * Watches the hall effect sensor device file for change notifications, so we hear about the cover
+ * the moment the kernel updates the node instead of waiting for the proximity sensor to fire.
+ * Not every kernel notifies on this node, so ViewCoverService keeps the proximity sensor as a fallback;
+ * both paths end up in Functions.Events.hall, which ignores readings that don't change the cover state.
+ */
+public class CoverWatcher extends FileObserver {
+
+	private final Context ctx;
+	private final HallProbe probe;
+	private final String path;
+
+	//last state we reported, so repeated notifications for the same state are dropped here
+	private int lastState = HallProbe.STATE_UNKNOWN;
+
+	/**
+	 * @param ctx Application context.
+	 * @param path Path of the hall effect sensor device file.
+	 * @param probe Probe reading the same file.
+	 */
+	public CoverWatcher(Context ctx, String path, HallProbe probe) {
+		super(path, FileObserver.MODIFY | FileObserver.CLOSE_WRITE | FileObserver.ATTRIB);
+		this.ctx = ctx;
+		this.path = path;
+		this.probe = probe;
+	}
+
+	/**
+	 * Start watching, if the device file exists.
+	 * @return False if there is nothing to watch, in which case only the fallback path will work.
+	 */
+	public boolean start() {
+		if (!new File(path).exists()) {
+			Log.w("CW.start", "Hall effect sensor device file not found, not watching: " + path);
+			return false;
+		}
+
+		lastState = probe.read();
+		startWatching();
+		Log.d("CW.start", "Watching " + path + ", initial state: " + lastState);
+		return true;
+	}
+
+	@Override
+	public void onEvent(int event, String file) {
+		int state = probe.read();
+
+		Log.d("CW.onEvent", "Hall effect sensor event " + event + ", state: " + state);
+
+		if (state == HallProbe.STATE_UNKNOWN || state == lastState) return;
+		lastState = state;
+
+		changed(state == HallProbe.STATE_CLOSED);
+	}
+
+	/**
+	 * The cover state changed. Overridden in tests.
+	 */
+	void changed(boolean closed) {
+		Functions.Events.hall(ctx, closed);
+	}
+}
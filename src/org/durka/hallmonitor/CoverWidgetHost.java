@@ -0,0 +1,126 @@
+/* Copyright 2013 Alex Burka
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.durka.hallmonitor;
+
+import android.appwidget.AppWidgetHost;
+import android.appwidget.AppWidgetHostView;
+import android.appwidget.AppWidgetProviderInfo;
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+import android.widget.RemoteViews;
+
+/**
+ * App widget host that is only listening for widget updates while the cover screen is showing.
+ * While it isn't, the widgets' updates aren't delivered or applied at all; when it starts listening again
+ * the system hands over each widget's latest views, so the widgets catch up with a single refresh.
+ * Counts the updates applied while listening, the catch-up refreshes and how long it wasn't listening.
+ * Use it on the main thread only.
+ */
+public class CoverWidgetHost extends AppWidgetHost {
+
+	private boolean listening = false;
+	private boolean catchingUp = false;
+
+	//stats
+	private int applied = 0;
+	private int caughtUp = 0;
+	private int resumes = 0;
+	private long stoppedAt = SystemClock.uptimeMillis();
+	private long stoppedFor = 0;
+
+	public CoverWidgetHost(Context ctx, int hostId) {
+		super(ctx, hostId);
+	}
+
+	public boolean isListening() {
+		return listening;
+	}
+
+	@Override
+	public void startListening() {
+		if (listening) return;
+
+		//the views handed over while starting up are the catch-up refresh
+		catchingUp = true;
+		try {
+			super.startListening();
+		} finally {
+			catchingUp = false;
+		}
+
+		listening = true;
+		resumes++;
+		stoppedFor += SystemClock.uptimeMillis() - stoppedAt;
+		Log.d("CWH.startListening", "Listening for widget updates: " + this);
+	}
+
+	@Override
+	public void stopListening() {
+		if (!listening) return;
+
+		super.stopListening();
+
+		listening = false;
+		stoppedAt = SystemClock.uptimeMillis();
+		Log.d("CWH.stopListening", "Stopped listening for widget updates: " + this);
+	}
+
+	@Override
+	protected AppWidgetHostView onCreateView(Context ctx, int appWidgetId, AppWidgetProviderInfo appWidget) {
+		return new CountingHostView(ctx);
+	}
+
+	public int getAppliedCount() {
+		return applied;
+	}
+
+	public int getCaughtUpCount() {
+		return caughtUp;
+	}
+
+	/**
+	 * @return Total time spent not listening, in ms.
+	 */
+	public long getStoppedTime() {
+		return stoppedFor + (listening ? 0 : SystemClock.uptimeMillis() - stoppedAt);
+	}
+
+	@Override
+	public String toString() {
+		return "CoverWidgetHost[listening=" + listening + ", applied=" + applied + ", caughtUp=" + caughtUp
+				+ ", resumes=" + resumes + ", stoppedMs=" + getStoppedTime() + "]";
+	}
+
+	/**
+	 * Host view that counts the updates it applies.
+	 */
+	private class CountingHostView extends AppWidgetHostView {
+
+		CountingHostView(Context ctx) {
+			super(ctx);
+		}
+
+		@Override
+		public void updateAppWidget(RemoteViews remoteViews) {
+			if (catchingUp) {
+				caughtUp++;
+			} else {
+				applied++;
+			}
+			super.updateAppWidget(remoteViews);
+		}
+	}
+}
@@ -0,0 +1,109 @@
+/* Copyright 2013 Alex Burka
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.durka.hallmonitor;
+
+import android.os.SystemClock;
+import android.view.Choreographer;
+
+/**
+ * Folds bursts of update requests into at most one update per display frame (or per interval, if one is given).
+ * The update runs on the next frame after the first request and sees whatever state the requests left behind.
+ * Keeps count of how many requests went into each update.
+ * Create and use it on the main thread only.
+ */
+public class FrameCoalescer implements Choreographer.FrameCallback {
+
+	private final Choreographer choreographer = Choreographer.getInstance();
+	private final Runnable update;
+	private final long interval;
+
+	private boolean scheduled = false;
+	private int requests = 0;
+	private long lastUpdate = 0;
+
+	//stats
+	private int updates = 0;
+	private int folded = 0;
+	private int maxFolded = 0;
+
+	/**
+	 * @param update What to run once per frame when something has been requested.
+	 * @param interval Minimum time between updates in ms, or 0 to update on every frame.
+	 */
+	public FrameCoalescer(Runnable update, long interval) {
+		this.update = update;
+		this.interval = interval;
+	}
+
+	/**
+	 * Ask for an update. Runs on the next frame unless one is already pending.
+	 */
+	public void request() {
+		requests++;
+		if (scheduled) return;
+
+		scheduled = true;
+		long wait = lastUpdate + interval - SystemClock.uptimeMillis();
+		if (wait > 0) {
+			choreographer.postFrameCallbackDelayed(this, wait);
+		} else {
+			choreographer.postFrameCallback(this);
+		}
+	}
+
+	/**
+	 * Drop a pending update, if any.
+	 */
+	public void cancel() {
+		choreographer.removeFrameCallback(this);
+		scheduled = false;
+		requests = 0;
+	}
+
+	public boolean isPending() {
+		return scheduled;
+	}
+
+	@Override
+	public void doFrame(long frameTimeNanos) {
+		scheduled = false;
+		lastUpdate = SystemClock.uptimeMillis();
+
+		updates++;
+		folded += requests;
+		if (requests > maxFolded) maxFolded = requests;
+		requests = 0;
+
+		update.run();
+	}
+
+	public int getUpdateCount() {
+		return updates;
+	}
+
+	public int getRequestCount() {
+		return folded;
+	}
+
+	public int getMaxFolded() {
+		return maxFolded;
+	}
+
+	@Override
+	public String toString() {
+		return "FrameCoalescer[updates=" + updates + ", requests=" + folded
+				+ ", avg=" + (updates > 0 ? (float)folded / updates : 0) + ", max=" + maxFolded + "]";
+	}
+}
@@ -14,16 +14,7 @@
  */
 package org.durka.hallmonitor;
 
-import java.io.BufferedReader;
-import java.io.DataOutputStream;
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.util.Scanner;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.ArrayList;
 
 import android.app.Activity;
 import android.app.ActivityManager;
@@ -46,16 +37,13 @@ import android.os.PowerManager;
 import android.preference.PreferenceManager;
 import android.provider.BaseColumns;
 import android.provider.ContactsContract;
-import android.service.notification.StatusBarNotification;
 import android.telephony.TelephonyManager;
 import android.util.Log;
 import android.view.View;
 import android.view.ViewGroup;
 import android.view.WindowManager;
 import android.widget.BaseAdapter;
-import android.widget.GridView;
 import android.widget.ImageView;
-import android.widget.TextView;
 import android.widget.Toast;
 
 /**
@@ -74,12 +62,26 @@ public class Functions {
     //this action will let us toggle the flashlight
     public static final String TOGGLE_FLASHLIGHT = "net.cactii.flash2.TOGGLE_FLASHLIGHT";
 
-    private static final String DEV_SERRANO_LTE = "serranolte"; // GT-I9195
-	
 	//Class that handles interaction with 3rd party App Widgets
 	public static final HMAppWidgetManager hmAppWidgetManager = new HMAppWidgetManager();
 	
+	//runs all our delayed actions on one background thread
+	public static final Scheduler scheduler = new Scheduler("HallMonitor-scheduler");
+	
+	//runs work that may block (root shell results, contact lookups) so it can't hold up the lock timer
+	public static final Scheduler background = new Scheduler("HallMonitor-background");
+	
+	//root shell, kept running between commands so we don't have to start su every time
+	public static final RootShell rootShell = new RootShell(background, 10000, "su");
+	
+	//switches the touch screen in and out of clear cover mode
+	public static final TouchSensitivityController touchSensitivity = new TouchSensitivityController(rootShell, "/sys/class/sec/tsp", Build.DEVICE);
+	
 	public static DefaultActivity defaultActivity;
+	//the cover screen that is showing, in the default activity or the overlay
+	public static CoverScreen coverScreen;
+	//the overlay window the cover screen is shown in, if the service is running
+	public static CoverOverlay coverOverlay;
 	public static Configuration configurationActivity;
 	
 	/**
@@ -87,13 +89,18 @@ public class Functions {
 	 */
 	public static class Actions {
 		
-		//used for the timer to turn off the screen on a delay
-        public static Timer timer = new Timer();
-        public static TimerTask timerTask;
+		//used to turn off the screen on a delay
+        public static Scheduler.Task lockTask;
+        
+        //minimum time between notification refreshes in ms, 0 means once per frame
+        private static final long NOTIFICATION_REFRESH_INTERVAL = 0;
+        
+        //applies the notification changes to the default activity, while it is showing
+        public static FrameCoalescer notificationRefresh;
 		
         
         /**
-         * Called whenever the cover_closed event is called. Also called from DefaultActivity when the 
+         * Called whenever the cover_closed event is called. Also called from CoverScreen when the 
          * screen turns on whilst the cover is closed.
          * Switches to the default activity screen and if we are running root enabled boosts the screen sensitivity.
          * After pref_delay milliseconds locks the screen.
@@ -105,27 +112,20 @@ public class Functions {
 			
 			//save the cover state
 			Events.set_cover(true);
+			CoverPrewarmer.closing();
 			
 			
 		    // step 1: bring up the default activity window
 			//we are using the show when locked flag as we'll re-use this method to show the screen on power button press
-			if (!DefaultActivity.on_screen) {
-				ctx.startActivity(new Intent(ctx, DefaultActivity.class)
-										.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK
-												| Intent.FLAG_ACTIVITY_NO_ANIMATION
-												| WindowManager.LayoutParams.FLAG_SHOW_WHEN_LOCKED));
-			}
+			show_cover(ctx);
             
 			
 			//if we are running in root enabled mode then lets up the sensitivity on the view screen
 			//so we can use the screen through the window
-			 if (PreferenceManager.getDefaultSharedPreferences(ctx).getBoolean("pref_runasroot", false)) {
+			 if (HallMonitorSettings.get(ctx).runAsRoot) {
                  Log.d("F.Act.close_cover", "We're root enabled so lets boost the sensitivity...");
 
-                 if (Build.DEVICE.equals(DEV_SERRANO_LTE)) {
-                     run_commands_as_root(new String[]{"echo module_on_master > /sys/class/sec/tsp/cmd && cat /sys/class/sec/tsp/cmd_result", "echo clear_cover_mode,3 > /sys/class/sec/tsp/cmd && cat /sys/class/sec/tsp/cmd_result"});
-                 } else // others devices
-                     run_commands_as_root(new String[]{"echo clear_cover_mode,1 > /sys/class/sec/tsp/cmd"});
+                 touchSensitivity.setCovered(true);
 
 				 Log.d("F.Act.close_cover", "...Sensitivity boosted, hold onto your hats!");
 			 }
@@ -144,14 +144,15 @@ public class Functions {
 			
 			
             //step 2: wait for the delay period and turn the screen off
-            int delay = PreferenceManager.getDefaultSharedPreferences(ctx).getInt("pref_delay", 10000);
+            int delay = HallMonitorSettings.get(ctx).delay;
             
             Log.d("F.Act.close_cover", "Delay set to: " + delay);
             
             
-            //using the handler is causing a problem, seems to lock up the app, hence replaced with a Timer
-            timer.schedule(timerTask = new TimerTask() {
-			//handler.postDelayed(new Runnable() {
+            //using the handler is causing a problem, seems to lock up the app, hence run on the scheduler thread
+            //if we were already waiting to lock (e.g. power button pressed whilst closed) start the delay again
+            if (lockTask != null) lockTask.cancel();
+            lockTask = scheduler.schedule(new Runnable() {
 				@Override
 				public void run() {	
 					Log.d("F.Act.close_cover", "Locking screen now.");
@@ -164,6 +165,55 @@ public class Functions {
             
 		}
 
+		/**
+		 * Bring up the cover screen, if it isn't showing already. Depending on the settings it is shown
+		 * in the overlay window or in the default activity.
+		 * @param ctx Application context.
+		 */
+		public static void show_cover(Context ctx) {
+			CoverTiming.showing();
+			CoverOverlay overlay = coverOverlay;
+			if (HallMonitorSettings.get(ctx).overlay && overlay != null) {
+				overlay.show();
+			} else if (!CoverScreen.on_screen) {
+				ctx.startActivity(new Intent(ctx, DefaultActivity.class)
+										.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK
+												| Intent.FLAG_ACTIVITY_NO_ANIMATION
+												| WindowManager.LayoutParams.FLAG_SHOW_WHEN_LOCKED));
+			}
+		}
+		
+		/**
+		 * Bring up the cover screen on top of whatever activity just started (e.g. the alarm or the dialer).
+		 * @param ctx Application context.
+		 */
+		public static void bring_cover_to_front(Context ctx) {
+			CoverTiming.showing();
+			CoverOverlay overlay = coverOverlay;
+			if (HallMonitorSettings.get(ctx).overlay && overlay != null) {
+				//the overlay is above the activities anyway
+				overlay.show();
+			} else {
+				Intent intent = new Intent(ctx, DefaultActivity.class);
+				intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK
+					          | Intent.FLAG_ACTIVITY_CLEAR_TOP
+					          | WindowManager.LayoutParams.FLAG_SHOW_WHEN_LOCKED);
+				intent.setAction(Intent.ACTION_MAIN);
+				ctx.startActivity(intent);
+			}
+		}
+		
+		/**
+		 * Get the cover screen out of the way, wherever it is shown.
+		 * @param ctx Application context.
+		 */
+		public static void hide_cover(Context ctx) {
+			CoverTiming.hiding();
+			CoverOverlay overlay = coverOverlay;
+			if (overlay != null) overlay.hide();
+			if (defaultActivity != null) defaultActivity.moveTaskToBack(true);
+		}
+		
 		/**
 		 * Called from within the Functions.Event.Proximity method.
          * If we are running root enabled reverts the screen sensitivity.
@@ -177,14 +227,14 @@ public class Functions {
 			
 			//we don't want the configuration screen displaying when we wake back up
 			if (configurationActivity != null) configurationActivity.moveTaskToBack(true);
-	        //we also don't want to see the default activity
-	        if (defaultActivity != null)  defaultActivity.moveTaskToBack(true);
+	        //we also don't want to see the cover screen
+	        hide_cover(ctx);
 	        
 			//needed to let us wake the screen
 			PowerManager pm  = (PowerManager) ctx.getSystemService(Context.POWER_SERVICE);
 			
 			// step 1: if we were going to turn the screen off, cancel that
-			if (timerTask != null) timerTask.cancel();
+			if (lockTask != null) lockTask.cancel();
 			
 			// step 2: wake the screen
 			//FIXME Would be nice to remove the deprecated FULL_WAKE_LOCK if possible
@@ -197,9 +247,9 @@ public class Functions {
 			
 			//if we are running in root enabled mode then lets revert the sensitivity on the view screen
 			//so we can use the device as normal
-			 if (PreferenceManager.getDefaultSharedPreferences(ctx).getBoolean("pref_runasroot", false)) {
+			 if (HallMonitorSettings.get(ctx).runAsRoot) {
 				 Log.d("F.Act.close_cover", "We're root enabled so lets revert the sensitivity...");
-				 run_commands_as_root(new String[]{"cd /sys/class/sec/tsp", "echo clear_cover_mode,0 > cmd && cat /sys/class/sec/tsp/cmd_result"});
+				 touchSensitivity.setCovered(false);
 				 Log.d("F.Act.close_cover", "...Sensitivity reverted, sanity is restored!");
 			 }
 		}
@@ -268,119 +318,157 @@ public class Functions {
 		
 		
 		/**
-		 * Execute shell commands
+		 * Execute shell commands in the root shell without waiting for them; the results are logged
 		 * @param cmds Commands to execute
 		 */
-		public static String run_commands_as_root(String[] cmds) { return run_commands_as_root(cmds, true); }
-		
-		public static String run_commands_as_root(String[] cmds, boolean want_output) {
-	        try {
-	        	Process p = Runtime.getRuntime().exec("su");
-	        	
-	        	//create output stream for running commands
-	            DataOutputStream os = new DataOutputStream(p.getOutputStream());  
-	            
-	            //tap into the output
-	            InputStream is = p.getInputStream();
-	            BufferedReader isBr = new BufferedReader(new InputStreamReader(is));
-	            
-	            //tap into the error output
-	            InputStream es = p.getErrorStream();
-	            BufferedReader esBr = new BufferedReader(new InputStreamReader(es));
-	            
-	            //use this for collating the output
-	            String currentLine;
-	            
-	            //run commands
-	            for (String tmpCmd : cmds) {
-	            	Log.d("F.Act.run_comm_as_root", "Running command: " + tmpCmd);
-                    os.writeBytes(tmpCmd+"\n");
-	            }      
-	            os.writeBytes("exit\n");  
-	            os.flush();
-	            
-	            if (want_output) {
-		            //log out the output
-		            String output = "";
-		            while ((currentLine = isBr.readLine()) != null) {
-		              output += currentLine + "\n";
-		            } 
-		            Log.d("F.Act.run_comm_as_root", "Have output: " + output);
-	           
-		            //log out the error output
-		            String error = "";
-		            currentLine = "";
-		            while ((currentLine = esBr.readLine()) != null) {
-		              error += currentLine + "\n";
-		            }	           
-		            Log.d("F.Act.run_comm_as_root", "Have error: " + error);
-		            
-		            return output.trim();
-	            }
-	            return "";
-
-	        } catch (IOException ioe) {
-	        	Log.e("F.Act.run_comm_as_root","Failed to run command!", ioe);
-	        	return "";
-	        }
+		public static void run_commands_as_root(String[] cmds) {
+			for (String tmpCmd : cmds) rootShell.submit(tmpCmd, LOG_RESULT);
 		}
+		
+		/**
+		 * Execute a shell command in the root shell
+		 * @param cmd Command to execute
+		 * @param callback Receives the result, off the UI thread
+		 */
+		public static void run_command_as_root(String cmd, RootShell.Callback callback) {
+			rootShell.submit(cmd, callback);
+		}
+		
+		//just log the result of root commands, if nobody is interested in it
+		private static final RootShell.Callback LOG_RESULT = new RootShell.Callback() {
+			@Override
+			public void onResult(RootShell.Command cmd) {
+				Log.d("F.Act.run_comm_as_root", "Command: " + cmd + ", exit code: " + cmd.getExitCode() + ", took: " + cmd.getLatency() + "ms");
+				if (cmd.getOutput().length() > 0) Log.d("F.Act.run_comm_as_root", "Have output: " + cmd.getOutput());
+				if (cmd.getError().length() > 0) Log.d("F.Act.run_comm_as_root", "Have error: " + cmd.getError());
+			}
+		};
 
 
 		public static void hangup_call() {
 			Log.d("phone", "hanging up! goodbye");
-			run_commands_as_root(new String[]{"input keyevent 6"}, false);
-			DefaultActivity.phone_ringing = false;
-			defaultActivity.refreshDisplay();
+			run_commands_as_root(new String[]{"input keyevent 6"});
+			CoverScreen.phone_ringing = false;
+			if (coverScreen != null) coverScreen.refreshDisplay();
 		}
 		
 		public static void pickup_call() {
 			Log.d("phone", "picking up! hello");
-			run_commands_as_root(new String[]{"input keyevent 5"}, false);
-			//DefaultActivity.phone_ringing = false;
-			//defaultActivity.refreshDisplay();
+			run_commands_as_root(new String[]{"input keyevent 5"});
+			//CoverScreen.phone_ringing = false;
+			//coverScreen.refreshDisplay();
 		}
 		
-		public static void toggle_torch(DefaultActivity da) {
+		public static void toggle_torch(CoverScreen cs) {
 			Intent intent = new Intent(TOGGLE_FLASHLIGHT);
 	        intent.putExtra("strobe", false);
 	        intent.putExtra("period", 100);
 	        intent.putExtra("bright", false);
-	        da.sendBroadcast(intent);
+	        cs.getContext().sendBroadcast(intent);
 	        Is.torchIsOn = !Is.torchIsOn;
 	        if (Is.torchIsOn) {
-	        	da.torchButton.setImageResource(R.drawable.ic_appwidget_torch_on);
-	        	if (timerTask != null) timerTask.cancel();
+	        	cs.torchButton.setImageResource(R.drawable.ic_appwidget_torch_on);
+	        	if (lockTask != null) lockTask.cancel();
 	        } else {
-	        	da.torchButton.setImageResource(R.drawable.ic_appwidget_torch_off);
-	        	close_cover(da);
+	        	cs.torchButton.setImageResource(R.drawable.ic_appwidget_torch_off);
+	        	close_cover(cs.getContext().getApplicationContext());
 	        }
 		}
 		
-		public static void setup_notifications() {
-			StatusBarNotification[] notifs = NotificationService.that.getActiveNotifications();
-			Log.d("DA-oC", Integer.toString(notifs.length) + " notifications");
-			GridView grid = (GridView)defaultActivity.findViewById(R.id.default_icon_container);
-			grid.setNumColumns(notifs.length);
-			grid.setAdapter(new NotificationAdapter(defaultActivity, notifs));
+		/**
+		 * Make sure our copy of the notifications is complete, fetching the whole list if we have missed events.
+		 * Call on the main thread, with the notification listener running.
+		 * @param ctx Context
+		 */
+		public static void sync_notifications(Context ctx) {
+			NotificationModel model = NotificationService.model;
+			if (!model.isSynced()) {
+				// first time (or the listener restarted), so fetch the whole list once
+				model.resync(NotificationService.that.getActiveNotifications());
+
+				// these weren't prefetched as they were posted, so start on their icons right away
+				NotificationIconLoader loader = NotificationIconLoader.getInstance(ctx);
+				for (int i = 0; i < model.size(); i++) loader.prefetch(model.get(i));
+			}
 		}
 		
-		public static void refresh_notifications() {
-			final GridView grid = (GridView)defaultActivity.findViewById(R.id.default_icon_container);
-			final NotificationAdapter adapter = (NotificationAdapter)grid.getAdapter();
-			final StatusBarNotification[] notifs = NotificationService.that.getActiveNotifications();
-			adapter.update(notifs);
-			defaultActivity.runOnUiThread(new Runnable() {
-
-				@Override
-				public void run() {
-					
-					grid.setNumColumns(notifs.length);
-					adapter.notifyDataSetChanged();
+		/**
+		 * Show the current notifications on the cover screen, and keep them up to date as they change.
+		 * @param screen The cover screen
+		 */
+		public static void setup_notifications(CoverScreen screen) {
+			NotificationModel model = NotificationService.model;
+			sync_notifications(screen.getContext());
+			Log.d("DA-oC", Integer.toString(model.size()) + " notifications");
+			
+			screen.setNotificationSource(new NotificationAdapter(screen.getContext(), model));
+			
+			// notifications tend to come in bursts, so the model's changes are collected and applied
+			// at most once per frame
+			NotificationRefresher refresher = new NotificationRefresher(screen);
+			notificationRefresh = new FrameCoalescer(refresher, NOTIFICATION_REFRESH_INTERVAL);
+			
+			// the model calls us on the main thread, one change at a time
+			model.setListener(refresher);
+		}
+		
+		/**
+		 * Collects the notification model's changes and applies them to the cover screen when the coalescer runs it.
+		 */
+		private static class NotificationRefresher implements NotificationModel.Listener, Runnable {
+			
+			private final CoverScreen screen;
+			// positions to rebind, unless everything has to be
+			private final ArrayList<Integer> changed = new ArrayList<Integer>();
+			private boolean structural = false;
+			
+			NotificationRefresher(CoverScreen screen) {
+				this.screen = screen;
+			}
+			
+			@Override
+			public void run() {
+				if (structural) {
+					screen.refreshNotifications();
+				} else {
+					// only some icons need rebinding
+					for (int position : changed) screen.refreshNotification(position);
 				}
-				
-			});
+				structural = false;
+				changed.clear();
+			}
+			
+			@Override
+			public void onInserted(int position) {
+				structural = true;
+				notificationRefresh.request();
+			}
+
+			@Override
+			public void onRemoved(int position) {
+				structural = true;
+				notificationRefresh.request();
+			}
+
+			@Override
+			public void onChanged(int position) {
+				// positions are only stable until the next insert or remove, but then everything is redrawn anyway
+				if (!structural && !changed.contains(position)) changed.add(position);
+				notificationRefresh.request();
+			}
 		}
 		
+		/**
+		 * Stop updating the cover screen's notifications.
+		 */
+		public static void teardown_notifications() {
+			NotificationService.model.setListener(null);
+			if (notificationRefresh != null) {
+				notificationRefresh.cancel();
+				Log.d("F.Act.teardown_notifications", "notification refreshes: " + notificationRefresh);
+				notificationRefresh = null;
+			}
+		}
 		
 		public static void debug_notification(Context ctx, boolean showhide) {
 			if (showhide) {
@@ -408,7 +496,7 @@ public class Functions {
 	public static class Events {
 		
 		//is the cover closed
-		private static boolean cover_closed;
+		private static volatile boolean cover_closed;
 		
 		/**
 		 * Invoked from the BootReceiver, allows for start on boot, as is registered in the manifest as listening for:
@@ -532,7 +620,7 @@ public class Functions {
 		 * @param ctx Application context.
 		 * @param value Value of the proximity sensor.
 		 */
-		public static void proximity(Context ctx, float value) {
+		public static synchronized void proximity(Context ctx, float value) {
 			
 			Log.d("F.Evt.proximity", "Proximity method called with value: " + value + " ,whilst cover_closed is: " + cover_closed);
 			
@@ -555,6 +643,24 @@ public class Functions {
 		}
 
 
+		/**
+		 * Receives a fresh reading of the hall effect sensor (e.g. from the CoverWatcher) and opens or closes
+		 * the cover if it differs from the state we have saved.
+		 * @param ctx Application context.
+		 * @param closed Does the sensor report the cover as closed.
+		 */
+		public static synchronized void hall(Context ctx, boolean closed) {
+			
+			Log.d("F.Evt.hall", "Hall method called with closed: " + closed + " ,whilst cover_closed is: " + cover_closed);
+			
+			if (closed && !cover_closed) {
+				Actions.close_cover(ctx);
+			} else if (!closed && cover_closed) {
+				Actions.open_cover(ctx);
+			}
+		}
+
+
 		public static void incoming_call(final Context ctx, String number) {
 			Log.d("phone", "call from " + number);
 			if (Functions.Is.cover_closed(ctx)) {
@@ -564,20 +670,18 @@ public class Functions {
 				//we want to pop this activity up over the top of the dialer activity
 				//to guarantee that we need to hold off until the dialer activity is running
 				//a 1 second delay seems to allow this
-				DefaultActivity.phone_ringing = true;
-				DefaultActivity.call_from = number;
+				CoverScreen.phone_ringing = true;
+				CoverScreen.call_from = number;
+				CoverScreen.call_from_name = null;
+				
+				//look the caller up while we wait, so the phone controls come up with the name already there
+				//(if it takes longer than that, the name is filled in when it arrives)
+				lookup_caller(ctx, number);
 
-				Timer timer = new Timer();
-				timer.schedule(new TimerTask() {
+				scheduler.schedule(new Runnable() {
 					@Override
 					public void run() {
-						Intent intent = new Intent(ctx, DefaultActivity.class);
-						intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK
-							          | Intent.FLAG_ACTIVITY_CLEAR_TOP
-							          | WindowManager.LayoutParams.FLAG_SHOW_WHEN_LOCKED);
-						intent.setAction(Intent.ACTION_MAIN);
-						ctx.startActivity(intent);
-
+						Actions.bring_cover_to_front(ctx);
 					}
 				}, 500);
 				
@@ -604,11 +708,41 @@ public class Functions {
 			}
 		}
 		
+		/**
+		 * Resolve the caller's name off the UI thread, then show it if the default activity is up.
+		 * @param ctx Application context.
+		 * @param number Phone number of the caller.
+		 */
+		public static void lookup_caller(final Context ctx, final String number) {
+			background.execute(new Runnable() {
+				@Override
+				public void run() {
+					String name = Util.getContactName(ctx, number);
+					
+					//don't clobber the name if another call came in meanwhile
+					if (!number.equals(CoverScreen.call_from)) return;
+					CoverScreen.call_from_name = name;
+					
+					final CoverScreen screen = coverScreen;
+					if (screen != null && CoverScreen.on_screen) {
+						screen.getView().post(new Runnable() {
+							@Override
+							public void run() {
+								screen.showCaller();
+							}
+						});
+					}
+				}
+			});
+		}
+		
 		public static void call_finished(Context ctx) {
 			Log.d("phone", "call is over, cleaning up");
-			DefaultActivity.phone_ringing = false;
-			((TextView)defaultActivity.findViewById(R.id.call_from)).setText(ctx.getString(R.string.unknown_caller));
-			Actions.close_cover(ctx);
+			CoverScreen.phone_ringing = false;
+			CoverScreen.call_from = "";
+			CoverScreen.call_from_name = null;
+			//only go back to the cover screen if the cover is still closed
+			if (Functions.Is.cover_closed(ctx)) Actions.close_cover(ctx);
 		}
 	}
 	
@@ -619,6 +753,9 @@ public class Functions {
 		
 		public static boolean torchIsOn = false;
 		
+		//keeps the hall effect sensor device file open between checks
+		private static HallProbe hallProbe;
+		
 		/**
 		 * Is the cover closed.
 		 * @param ctx Application context.
@@ -628,22 +765,23 @@ public class Functions {
 			
 			Log.d("F.Is.cover_closed", "Is cover closed called.");
 			
-			String status = "";
-			try {
-				Scanner sc = new Scanner(new File(ctx.getString(R.string.hall_file)));
-				status = sc.nextLine();
-				sc.close();
-			} catch (FileNotFoundException e) {
-				Log.e(ctx.getString(R.string.app_name), "Hall effect sensor device file not found!");
-			}
+			boolean isClosed = hall_probe(ctx).isClosed();
 			
-			boolean isClosed = (status.compareTo("CLOSE") == 0);
-			
-			Log.d("F.Is.cover_closed","Cover closed state is: " + true);
+			Log.d("F.Is.cover_closed","Cover closed state is: " + isClosed);
 			
 			return isClosed;
 		}
 		
+		/**
+		 * Get the probe for the hall effect sensor, opening it on first use.
+		 * @param ctx Application context.
+		 * @return The shared probe.
+		 */
+		static synchronized HallProbe hall_probe(Context ctx) {
+			if (hallProbe == null) hallProbe = new HallProbe(ctx.getString(R.string.hall_file));
+			return hallProbe;
+		}
+		
 		
 		/**
 		 * Is the service running.
@@ -678,7 +816,7 @@ public class Functions {
 			
 			Log.d("F.Is.wid_enabled", "Is default widget enabled called with widgetType: " + widgetType);
 			
-			boolean widgetEnabled = Functions.hmAppWidgetManager.doesWidgetExist(widgetType);
+			boolean widgetEnabled = Functions.hmAppWidgetManager.doesWidgetExist(ctx, widgetType);
 			
 			Log.d("F.Is.wid_enabled", widgetType + " widget enabled state is: " + widgetEnabled);
 			
@@ -692,15 +830,27 @@ public class Functions {
 	}
 	
 	public static class Util {
-		// from http://stackoverflow.com/questions/3712112/search-contact-by-phone-number
+		/**
+		 * Get the contact name for a phone number, from the cache if we've seen it before.
+		 * @param ctx Application context.
+		 * @param number Phone number.
+		 * @return Contact name, or the number if it isn't in the contacts.
+		 */
 		public static String getContactName(Context ctx, String number) {
 			
 			if (number.equals("")) return "";
 			
+			return ContactNameCache.getInstance(ctx).getName(number);
+		}
+		
+		// from http://stackoverflow.com/questions/3712112/search-contact-by-phone-number
+		// returns null if the number isn't in the contacts
+		static String lookupContactName(Context ctx, String number) {
+			
 			Log.d("phone", "looking up " + number + "...");
 			
 		    Uri uri = Uri.withAppendedPath(ContactsContract.PhoneLookup.CONTENT_FILTER_URI, Uri.encode(number));
-		    String name = number;
+		    String name = null;
 
 		    ContentResolver contentResolver = ctx.getContentResolver();
 		    Cursor contactLookup = contentResolver.query(uri, new String[] {BaseColumns._ID,
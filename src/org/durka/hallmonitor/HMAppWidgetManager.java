@@ -4,12 +4,12 @@ import java.util.ArrayList;
 import java.util.HashMap;
 
 import android.app.Activity;
-import android.appwidget.AppWidgetHost;
 import android.appwidget.AppWidgetHostView;
 import android.appwidget.AppWidgetManager;
 import android.appwidget.AppWidgetProviderInfo;
 import android.content.Context;
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.os.Bundle;
 import android.util.Log;
 
@@ -21,8 +21,14 @@ import android.util.Log;
  */
 public class HMAppWidgetManager {
 
-	//map of our selected widgets
+	//name of the preferences file the widget ids are saved in
+	private static final String WIDGET_IDS = "widgets";
+	
+	//map of our selected widgets, the ids are saved so they survive the process being killed
+	//but the views are only created the first time they are needed
+	private HashMap<String, Integer> widgetIds = new HashMap<String, Integer>();
 	private HashMap<String, AppWidgetHostView> widgetsMap = new HashMap<String, AppWidgetHostView>();
+	private SharedPreferences savedIds;
 	
 	//track which widget we are currently dealing with - holds state across the events firing
 	//this is a bit clunky, but there's no need to worry about thread safety so should be fine
@@ -30,7 +36,7 @@ public class HMAppWidgetManager {
 	
 	//app widget management classes we need
 	public AppWidgetManager mAppWidgetManager;
-	public AppWidgetHost mAppWidgetHost;
+	public CoverWidgetHost mAppWidgetHost;
   
     //default constructor
     public HMAppWidgetManager() {
@@ -38,6 +44,26 @@ public class HMAppWidgetManager {
     	Log.d("HMAWM.constructor","HMAppWidgetManager instantiated.");
     }
     
+    /**
+     * Load the saved widget ids, if we haven't already. This only reads a small preferences file,
+     * the widget views are created later when they are first shown.
+     * @param ctx Context
+     */
+    public synchronized void restore(Context ctx) {
+    	if (savedIds != null) return;
+    	
+    	ctx = ctx.getApplicationContext();
+    	if (mAppWidgetManager == null) mAppWidgetManager = AppWidgetManager.getInstance(ctx);
+    	if (mAppWidgetHost == null) mAppWidgetHost = new CoverWidgetHost(ctx, R.id.APPWIDGET_HOST_ID);
+    	
+    	savedIds = ctx.getSharedPreferences(WIDGET_IDS, Context.MODE_PRIVATE);
+    	for (String widgetType : savedIds.getAll().keySet()) {
+    		widgetIds.put(widgetType, savedIds.getInt(widgetType, -1));
+    	}
+    	
+    	Log.d("HMAWM.restore", "Restored widget ids: " + widgetIds);
+    }
+    
     /**
      * Kick off the widget picker dialog
      * @param act The Activity to use as the context for these actions
@@ -48,8 +74,7 @@ public class HMAppWidgetManager {
 		Log.d("HMAWM.register_widget","Register widget called with type: " + widgetType);
 		
 		//if we haven't yet created an app widget manager and app widget host instance then do so
-		if (mAppWidgetManager == null) mAppWidgetManager = AppWidgetManager.getInstance(act);
-		if (mAppWidgetHost == null) mAppWidgetHost = new AppWidgetHost(act, R.id.APPWIDGET_HOST_ID);
+		restore(act);
 		
 		//get an id for our app widget
 		int appWidgetId = mAppWidgetHost.allocateAppWidgetId();	
@@ -142,11 +167,17 @@ public class HMAppWidgetManager {
 	    //bizarrely this is needed to tell the hostView about the widget (again!)
 	    hostView.setAppWidget(appWidgetId, appWidgetInfo);
 	    
-	    //store hostView into our widgets map for access later
+	    //if this replaces a widget we had before, let go of the old one
+	    Integer oldId = widgetIds.get(currentWidgetType);
+	    if (oldId != null && oldId != appWidgetId) mAppWidgetHost.deleteAppWidgetId(oldId);
+	    
+	    //store hostView into our widgets map for access later, and save the id for next time
 	    widgetsMap.put(currentWidgetType, hostView);
+	    widgetIds.put(currentWidgetType, appWidgetId);
+	    savedIds.edit().putInt(currentWidgetType, appWidgetId).apply();
 	    
-	    //start the widget listening
-	    mAppWidgetHost.startListening();
+	    //no need to start listening, createView already gave it the widget's current state
+	    //and it will be kept up to date while the cover screen is showing
 	    
 	    Log.d("HMAWM.createWidget","Widget created and stored of type: " + currentWidgetType);
 	}	
@@ -160,7 +191,7 @@ public class HMAppWidgetManager {
 		Log.d("HMAWM.deleteAppWidgetId","Deleting widget id: " + appWidgetId);
 		
 		//stop the widget listening
-		mAppWidgetHost.stopListening();
+		stopListening();
 		
 		mAppWidgetHost.deleteAppWidgetId(appWidgetId);
 	}
@@ -175,21 +206,50 @@ public class HMAppWidgetManager {
 		
 		Log.d("HMAWM.unregister_widget","Unregister widget called with type: " + widgetType);
 		
+		restore(ctx);
+		forget(widgetType);
+	}
+	
+	//drop a widget, and its id now that nothing will use it again
+	private void forget(String widgetType) {
 		widgetsMap.remove(widgetType);
-		
-		//FIXME: Should we also clear up the app widget ID?
+		Integer appWidgetId = widgetIds.remove(widgetType);
+		if (appWidgetId != null) {
+			mAppWidgetHost.deleteAppWidgetId(appWidgetId);
+			savedIds.edit().remove(widgetType).apply();
+		}
 	}
 	
 	/**
-	 * Get the specified widget from the map
+	 * Get the specified widget from the map, creating its view if this is the first time it's been asked for
+	 * since the app started
+	 * @param ctx Context to create the view with
 	 * @param widgetType The type of the widget to get
 	 * @return The stored widget
 	 */
-	public AppWidgetHostView getAppWidgetHostViewByType(String widgetType) {
+	public AppWidgetHostView getAppWidgetHostViewByType(Context ctx, String widgetType) {
 		
 		Log.d("HMAWM.getAppWidgetHostViewByType","Widget requested of type: " + widgetType);
 		
-		AppWidgetHostView thisWidget = widgetsMap.get(widgetType);;
+		restore(ctx);
+		AppWidgetHostView thisWidget = widgetsMap.get(widgetType);
+		
+		if (thisWidget == null && widgetIds.containsKey(widgetType)) {
+			//we had this widget before the app was restarted, so rebuild its view
+			int appWidgetId = widgetIds.get(widgetType);
+			AppWidgetProviderInfo appWidgetInfo = mAppWidgetManager.getAppWidgetInfo(appWidgetId);
+			
+			if (appWidgetInfo == null) {
+				//the widget's app has gone away
+				Log.w("HMAWM.getAppWidgetHostViewByType","Widget " + appWidgetId + " no longer exists, forgetting type: " + widgetType);
+				forget(widgetType);
+			} else {
+				Log.d("HMAWM.getAppWidgetHostViewByType","Rebuilding widget " + appWidgetId + " of type: " + widgetType);
+				thisWidget = mAppWidgetHost.createView(ctx, appWidgetId, appWidgetInfo);
+				thisWidget.setAppWidget(appWidgetId, appWidgetInfo);
+				widgetsMap.put(widgetType, thisWidget);
+			}
+		}
 		
 		if (thisWidget == null) Log.w("HMAWM.getAppWidgetHostViewByType","Widget type does not exist in widget Map: " + widgetType);
 		
@@ -198,15 +258,35 @@ public class HMAppWidgetManager {
 	
 	
 	/**
-	 * Get the specified widget from the map
-	 * @param widgetType The type of the widget to get
-	 * @return The stored widget
+	 * Start delivering updates to the widgets, because the cover screen is (about to be) showing.
+	 * Each widget is brought up to date with its latest state straight away.
+	 * @param ctx Context, used to load the saved widget ids the first time
+	 */
+	public void startListening(Context ctx) {
+		restore(ctx);
+		if (widgetIds.isEmpty()) return;
+		mAppWidgetHost.startListening();
+	}
+	
+	/**
+	 * Stop delivering updates to the widgets, because nobody can see them.
+	 */
+	public void stopListening() {
+		if (mAppWidgetHost != null) mAppWidgetHost.stopListening();
+	}
+	
+	/**
+	 * Check whether we have a widget of the specified type, whether or not its view has been created yet
+	 * @param ctx Context, used to load the saved widget ids the first time
+	 * @param widgetType The type of the widget to check for
+	 * @return True if we have one
 	 */
-	public boolean doesWidgetExist(String widgetType) {
+	public boolean doesWidgetExist(Context ctx, String widgetType) {
 		
 		Log.d("HMAWM.doesWidgetExist","Checking for Widget of type: " + widgetType);
 		
-		return (widgetsMap.get(widgetType) != null);
+		restore(ctx);
+		return widgetIds.containsKey(widgetType);
 	}
 	
 }
@@ -0,0 +1,84 @@
+/* Copyright 2013 Alex Burka
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.durka.hallmonitor;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+/**
+ * Snapshot of the preferences read on the cover event paths.
+ * The snapshot is immutable and rebuilt whenever a preference changes, so reading a setting when the cover
+ * opens or closes is just a field access rather than a SharedPreferences lookup.
+ */
+public class HallMonitorSettings {
+
+	public final boolean runAsRoot;
+	public final int delay;
+	public final boolean flashControls;
+	public final boolean alarmControls;
+	public final boolean phoneControls;
+	public final int defaultBgColor;
+	public final int defaultFgColor;
+	public final boolean overlay;
+	public final boolean ambientClock;
+
+	private static volatile HallMonitorSettings current;
+
+	//SharedPreferences only holds its listeners weakly, so we have to keep this one alive ourselves
+	private static OnSharedPreferenceChangeListener listener;
+
+	private HallMonitorSettings(SharedPreferences prefs) {
+		runAsRoot = prefs.getBoolean("pref_runasroot", false);
+		delay = prefs.getInt("pref_delay", 10000);
+		flashControls = prefs.getBoolean("pref_flash_controls", false);
+		alarmControls = prefs.getBoolean("pref_alarm_controls", false);
+		phoneControls = prefs.getBoolean("pref_phone_controls", false);
+		defaultBgColor = prefs.getInt("pref_default_bgcolor", 0xFF000000);
+		defaultFgColor = prefs.getInt("pref_default_fgcolor", 0xFFFFFFFF);
+		overlay = prefs.getBoolean("pref_overlay", false);
+		ambientClock = prefs.getBoolean("pref_ambient_clock", false);
+	}
+
+	/**
+	 * Get the current settings.
+	 * @param ctx Context, only used the first time to load the preferences.
+	 * @return The current snapshot.
+	 */
+	public static HallMonitorSettings get(Context ctx) {
+		HallMonitorSettings settings = current;
+		return settings != null ? settings : load(ctx);
+	}
+
+	private static synchronized HallMonitorSettings load(Context ctx) {
+		if (current == null) {
+			SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(ctx.getApplicationContext());
+
+			listener = new OnSharedPreferenceChangeListener() {
+				@Override
+				public void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
+					Log.d("HMS.onSPC", "Preference " + key + " changed, rebuilding settings.");
+					current = new HallMonitorSettings(prefs);
+				}
+			};
+			prefs.registerOnSharedPreferenceChangeListener(listener);
+
+			current = new HallMonitorSettings(prefs);
+		}
+		return current;
+	}
+}
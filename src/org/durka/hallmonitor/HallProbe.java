@@ -0,0 +1,116 @@
+/* Copyright 2013 Alex Burka
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.durka.hallmonitor;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import android.util.Log;
+
+/**
+ * Reads the state of the hall effect sensor from its sysfs node.
+ * The node is kept open and re-read from offset 0 into a reused buffer, and the raw bytes are
+ * compared against CLOSE/OPEN directly, so a check doesn't allocate anything.
+ */
+public class HallProbe {
+
+	public static final int STATE_UNKNOWN = -1;
+	public static final int STATE_OPEN = 0;
+	public static final int STATE_CLOSED = 1;
+
+	private static final byte[] CLOSE = {'C', 'L', 'O', 'S', 'E'};
+	private static final byte[] OPEN = {'O', 'P', 'E', 'N'};
+
+	private final String path;
+
+	//sysfs attributes are at most a page, but we only care about the first few bytes
+	private final ByteBuffer buffer = ByteBuffer.allocate(16);
+
+	private RandomAccessFile file;
+	private FileChannel channel;
+
+	/**
+	 * @param path Path of the hall effect sensor device file.
+	 */
+	public HallProbe(String path) {
+		this.path = path;
+	}
+
+	/**
+	 * Read the current state of the sensor.
+	 * @return STATE_CLOSED, STATE_OPEN or STATE_UNKNOWN if the file can't be read or has unexpected contents.
+	 */
+	public synchronized int read() {
+		try {
+			if (channel == null) {
+				file = new RandomAccessFile(path, "r");
+				channel = file.getChannel();
+			}
+
+			buffer.clear();
+			int len = channel.read(buffer, 0);
+			//a full buffer means there is more, so it's not a value we know
+			if (len == buffer.capacity()) return STATE_UNKNOWN;
+
+			if (matches(len, CLOSE)) return STATE_CLOSED;
+			if (matches(len, OPEN)) return STATE_OPEN;
+			return STATE_UNKNOWN;
+		} catch (IOException e) {
+			Log.e("HallProbe.read", "Hall effect sensor device file could not be read: " + path);
+			//drop the handle, we'll try to open it again next time
+			close();
+			return STATE_UNKNOWN;
+		}
+	}
+
+	/**
+	 * Is the cover closed.
+	 * @return True if the sensor reports CLOSE.
+	 */
+	public boolean isClosed() {
+		return read() == STATE_CLOSED;
+	}
+
+	/**
+	 * Release the file handle. The probe can still be used afterwards, it will just reopen the file.
+	 */
+	public synchronized void close() {
+		try {
+			if (file != null) file.close();
+		} catch (IOException e) {
+			// nothing useful to do about it
+		}
+		file = null;
+		channel = null;
+	}
+
+	/**
+	 * Does the first len bytes of the buffer hold word, optionally followed by a line ending.
+	 */
+	private boolean matches(int len, byte[] word) {
+		byte[] raw = buffer.array();
+
+		if (len < word.length) return false;
+		for (int i = 0; i < word.length; i++) {
+			if (raw[i] != word[i]) return false;
+		}
+		for (int i = word.length; i < len; i++) {
+			if (raw[i] != '\n' && raw[i] != '\r') return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,168 @@
+/* Copyright 2013 Alex Burka
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.durka.hallmonitor;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.util.Scanner;
+
+import android.content.Context;
+import android.util.Log;
+
+/**
+ * Optional cover source for kernels that report the cover as a lid switch (EV_SW/SW_LID) on an input device.
+ * Reads raw input_event structs from /dev/input/eventN and feeds lid transitions into Functions.Events.hall.
+ * The event nodes usually aren't readable by apps, in which case find() returns null and we don't use this.
+ */
+public class LidSwitchReader extends Thread {
+
+	static final int EV_SW = 0x05;
+	static final int SW_LID = 0x00;
+
+	//struct input_event { struct timeval time; __u16 type; __u16 code; __s32 value; }
+	//timeval is two longs, so the layout depends on the word size of the process
+	private static final int LONG_SIZE = System.getProperty("os.arch", "").contains("64") ? 8 : 4;
+	static final int EVENT_SIZE = 2 * LONG_SIZE + 8;
+	static final int TYPE_OFFSET = 2 * LONG_SIZE;
+	static final int CODE_OFFSET = TYPE_OFFSET + 2;
+	static final int VALUE_OFFSET = TYPE_OFFSET + 4;
+
+	private final Context ctx;
+	private final String path;
+
+	//events are decoded in place, nothing is allocated per event
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(64 * EVENT_SIZE).order(ByteOrder.nativeOrder());
+
+	/**
+	 * @param ctx Application context.
+	 * @param path Path of the event device, e.g. /dev/input/event3.
+	 */
+	public LidSwitchReader(Context ctx, String path) {
+		super("LidSwitchReader");
+		this.ctx = ctx;
+		this.path = path;
+		setDaemon(true);
+	}
+
+	/**
+	 * Find the input device that reports SW_LID, by checking the switch capabilities in sysfs.
+	 * @return Path of the event device, or null if there isn't one we can read.
+	 */
+	public static String find() {
+		File[] inputs = new File("/sys/class/input").listFiles();
+		if (inputs == null) return null;
+
+		for (File input : inputs) {
+			if (!input.getName().startsWith("event")) continue;
+
+			if (has_capability(new File(input, "device/capabilities/ev"), EV_SW)
+					&& has_capability(new File(input, "device/capabilities/sw"), SW_LID)) {
+				File dev = new File("/dev/input", input.getName());
+				Log.d("LSR.find", "Lid switch found at " + dev + ", readable: " + dev.canRead());
+				return dev.canRead() ? dev.getPath() : null;
+			}
+		}
+
+		Log.d("LSR.find", "No lid switch found.");
+		return null;
+	}
+
+	/**
+	 * Is a bit set in a capabilities file (space-separated hex words, most significant first).
+	 */
+	private static boolean has_capability(File caps, int bit) {
+		try {
+			Scanner sc = new Scanner(caps);
+			String line = sc.hasNextLine() ? sc.nextLine().trim() : "";
+			sc.close();
+			if (line.length() == 0) return false;
+
+			String[] words = line.split(" ");
+			//each word is a long in the kernel's word size, but they all parse as one big bitmask
+			StringBuilder hex = new StringBuilder();
+			for (String word : words) {
+				for (int i = word.length(); i < 2 * LONG_SIZE; i++) hex.append('0');
+				hex.append(word);
+			}
+			return new BigInteger(hex.toString(), 16).testBit(bit);
+		} catch (IOException e) {
+			return false;
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
+	@Override
+	public void run() {
+		FileInputStream in = null;
+		try {
+			in = new FileInputStream(path);
+			FileChannel channel = in.getChannel();
+
+			Log.d("LSR.run", "Reading lid switch events from " + path);
+
+			while (!isInterrupted()) {
+				if (channel.read(buffer) < 0) break;
+				buffer.flip();
+				decode(buffer);
+
+				//keep any partial event for the next read
+				buffer.compact();
+			}
+		} catch (ClosedByInterruptException e) {
+			// we were stopped
+		} catch (IOException e) {
+			Log.e("LSR.run", "Failed to read lid switch events from " + path, e);
+		} finally {
+			try {
+				if (in != null) in.close();
+			} catch (IOException e) {
+				// nothing useful to do about it
+			}
+		}
+
+		Log.d("LSR.run", "Stopped reading lid switch events.");
+	}
+
+	/**
+	 * Decode the whole events between the position and the limit of buf, in place, and hand on the lid
+	 * transitions. Leaves the position at the start of any trailing partial event.
+	 */
+	void decode(ByteBuffer buf) {
+		int pos = buf.position();
+		while (buf.limit() - pos >= EVENT_SIZE) {
+			int type = buf.getShort(pos + TYPE_OFFSET) & 0xFFFF;
+			int code = buf.getShort(pos + CODE_OFFSET) & 0xFFFF;
+			if (type == EV_SW && code == SW_LID) {
+				lid(buf.getInt(pos + VALUE_OFFSET) != 0);
+			}
+			pos += EVENT_SIZE;
+		}
+		buf.position(pos);
+	}
+
+	/**
+	 * The lid switch changed. Overridden in tests.
+	 */
+	void lid(boolean closed) {
+		Functions.Events.hall(ctx, closed);
+	}
+}
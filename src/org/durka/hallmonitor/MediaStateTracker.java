@@ -0,0 +1,133 @@
+/* Copyright 2013 Alex Burka
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.durka.hallmonitor;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.media.AudioManager;
+import android.util.Log;
+
+/**
+ * Keeps track of whether headphones are plugged in and whether music is playing, from the headset plug,
+ * becoming noisy and player state broadcasts, so the cover screen can pick the media widget without asking
+ * the AudioManager every time it refreshes. The listener hears about every change, on the main thread.
+ * Not every player sends the play state broadcast, so refresh() asks the AudioManager directly; the cover
+ * screen does that once whenever it comes up.
+ */
+public class MediaStateTracker {
+
+	//sent by the stock music player and most others that copy it
+	public static final String PLAYSTATE_CHANGED = "com.android.music.playstatechanged";
+
+	/**
+	 * Hears about changes in the media state.
+	 */
+	public interface Listener {
+		void onMediaStateChanged();
+	}
+
+	private static MediaStateTracker instance;
+
+	private final AudioManager audioManager;
+
+	private volatile boolean headset = false;
+	private volatile boolean playing = false;
+	private Listener listener;
+
+	private final BroadcastReceiver receiver = new BroadcastReceiver() {
+		@Override
+		public void onReceive(Context context, Intent intent) {
+			received(intent);
+		}
+	};
+
+	private MediaStateTracker(Context ctx) {
+		audioManager = (AudioManager) ctx.getSystemService(Context.AUDIO_SERVICE);
+
+		IntentFilter filter = new IntentFilter();
+		filter.addAction(Intent.ACTION_HEADSET_PLUG);
+		filter.addAction(AudioManager.ACTION_AUDIO_BECOMING_NOISY);
+		filter.addAction(PLAYSTATE_CHANGED);
+		//the headset plug broadcast is sticky, so this gives us the current state straight away
+		Intent plug = ctx.registerReceiver(receiver, filter);
+		if (plug != null) headset = plug.getIntExtra("state", 0) == 1;
+
+		playing = audioManager.isMusicActive();
+	}
+
+	/**
+	 * Get the shared tracker.
+	 * @param ctx Context, only used the first time to set up the tracker.
+	 * @return The tracker.
+	 */
+	public static synchronized MediaStateTracker getInstance(Context ctx) {
+		if (instance == null) instance = new MediaStateTracker(ctx.getApplicationContext());
+		return instance;
+	}
+
+	public void setListener(Listener l) {
+		listener = l;
+	}
+
+	public boolean isHeadsetOn() {
+		return headset;
+	}
+
+	public boolean isPlaying() {
+		return playing;
+	}
+
+	/**
+	 * Should the media widget be showing.
+	 */
+	public boolean isActive() {
+		return headset || playing;
+	}
+
+	/**
+	 * Check the play state with the AudioManager, for players that don't tell us. Call on the main thread.
+	 */
+	public void refresh() {
+		update(headset, audioManager.isMusicActive());
+	}
+
+	/**
+	 * Handle one of the broadcasts we listen for. Tests call this directly, as some of them are protected.
+	 */
+	void received(Intent intent) {
+		String action = intent.getAction();
+		if (action.equals(Intent.ACTION_HEADSET_PLUG)) {
+			update(intent.getIntExtra("state", 0) == 1, playing);
+		} else if (action.equals(AudioManager.ACTION_AUDIO_BECOMING_NOISY)) {
+			//the headphones are coming out, players usually pause on this
+			update(false, audioManager.isMusicActive());
+		} else if (action.equals(PLAYSTATE_CHANGED)) {
+			update(headset, intent.hasExtra("playing") ? intent.getBooleanExtra("playing", false) : audioManager.isMusicActive());
+		}
+	}
+
+	private void update(boolean newHeadset, boolean newPlaying) {
+		if (newHeadset == headset && newPlaying == playing) return;
+
+		headset = newHeadset;
+		playing = newPlaying;
+		Log.d("MST.update", "Media state changed: headset=" + headset + ", playing=" + playing);
+
+		Listener l = listener;
+		if (l != null) l.onMediaStateChanged();
+	}
+}
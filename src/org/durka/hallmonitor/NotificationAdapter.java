@@ -1,69 +1,34 @@
 package org.durka.hallmonitor;
 
 import android.content.Context;
-import android.content.pm.PackageManager.NameNotFoundException;
-import android.content.res.Resources.NotFoundException;
+import android.graphics.Bitmap;
 import android.service.notification.StatusBarNotification;
-import android.util.Log;
-import android.view.View;
-import android.view.ViewGroup;
-import android.widget.BaseAdapter;
-import android.widget.GridView;
-import android.widget.ImageView;
 
-public class NotificationAdapter extends BaseAdapter {
-	
-	private StatusBarNotification[] notifs;
+public class NotificationAdapter implements NotificationStrip.IconSource {
+
+	private NotificationModel notifs;
+	private NotificationIconCache icons;
 	private Context that;
-	
-	public NotificationAdapter(Context ctx, StatusBarNotification[] n) {
+
+	public NotificationAdapter(Context ctx, NotificationModel n) {
 		that = ctx;
 		notifs = n;
-	}
-	
-	public void update(StatusBarNotification[] n) {
-		notifs = n;
-		Log.d("NA.upd", "update: " + Integer.toString(n.length) + " notifications");
+		icons = NotificationIconCache.getInstance(ctx);
 	}
 
 	@Override
 	public int getCount() {
-		return notifs.length;
-	}
-
-	@Override
-	public Object getItem(int position) {
-		return null;
+		return notifs.size();
 	}
 
 	@Override
-	public long getItemId(int position) {
-		return 0;
+	public Bitmap getIcon(int position) {
+		// if the icon isn't loaded yet, leave the slot empty; it gets rebound once the loader is done
+		StatusBarNotification sbn = notifs.get(position);
+		Bitmap icon = icons.getIcon(sbn);
+		if (icon == null) NotificationIconLoader.getInstance(that).prefetch(sbn);
+		return icon;
 	}
 
-	@Override
-	public View getView(int position, View convert, ViewGroup parent) {
-		ImageView view;
-		if (convert != null) {
-			view = (ImageView)convert;
-		} else {
-			view = new ImageView(that);
-			view.setLayoutParams(new GridView.LayoutParams(GridView.LayoutParams.MATCH_PARENT, GridView.LayoutParams.MATCH_PARENT));
-			view.setScaleType(ImageView.ScaleType.FIT_CENTER);
-			view.setPadding(0, 0, 0, 0);
-			try {
-				view.setImageDrawable(that.createPackageContext(notifs[position].getPackageName(), 0).getResources().getDrawable(notifs[position].getNotification().icon));
-			} catch (NotFoundException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			} catch (NameNotFoundException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
-		}
-
-		return view;
-	}	    		
-
 
 }
@@ -0,0 +1,186 @@
+/* Copyright 2013 Alex Burka
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.durka.hallmonitor;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageManager.NameNotFoundException;
+import android.content.res.Resources;
+import android.content.res.Resources.NotFoundException;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.drawable.Drawable;
+import android.os.Looper;
+import android.service.notification.StatusBarNotification;
+import android.util.Log;
+import android.util.LruCache;
+
+/**
+ * Caches notification icons as bitmaps already scaled to the cover screen's icon size, keyed by package and
+ * icon resource id, so showing an icon doesn't mean creating a package context and decoding the resource
+ * every time. The Resources of the last few packages are kept too. When a package is updated or removed, its
+ * Resources and icons are dropped, so they're loaded again from the new version.
+ * Icons are loaded ahead of time by the NotificationIconLoader, the UI only ever looks them up.
+ */
+public class NotificationIconCache extends LruCache<String, Bitmap> {
+
+	//plenty for a row of icons plus the ones that come and go
+	private static final int MAX_BYTES = 1024 * 1024;
+	//the apps that post notifications at the moment, more or less
+	private static final int MAX_PACKAGES = 8;
+
+	private static NotificationIconCache instance;
+
+	private final Context ctx;
+	private final int size;
+	private final LruCache<String, Resources> resources = new LruCache<String, Resources>(MAX_PACKAGES);
+
+	//stats
+	private final AtomicInteger decodes = new AtomicInteger();
+	private final AtomicInteger mainThreadDecodes = new AtomicInteger();
+
+	private final BroadcastReceiver packageChanged = new BroadcastReceiver() {
+		@Override
+		public void onReceive(Context context, Intent intent) {
+			if (intent.getData() == null) return;
+			forget(intent.getData().getSchemeSpecificPart());
+		}
+	};
+
+	private NotificationIconCache(Context ctx) {
+		super(MAX_BYTES);
+		this.ctx = ctx;
+		this.size = ctx.getResources().getDimensionPixelSize(R.dimen.notification_icon_size);
+
+		IntentFilter filter = new IntentFilter();
+		filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+		filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+		filter.addDataScheme("package");
+		ctx.registerReceiver(packageChanged, filter);
+	}
+
+	/**
+	 * Get the shared cache.
+	 * @param ctx Context, only used the first time to set up the cache.
+	 * @return The cache.
+	 */
+	public static synchronized NotificationIconCache getInstance(Context ctx) {
+		if (instance == null) instance = new NotificationIconCache(ctx.getApplicationContext());
+		return instance;
+	}
+
+	/**
+	 * Key of a notification's icon in the cache.
+	 */
+	public static String key(StatusBarNotification sbn) {
+		return sbn.getPackageName() + ":" + sbn.getNotification().icon;
+	}
+
+	/**
+	 * Get the icon for a notification if it has been loaded already.
+	 * @param sbn The notification.
+	 * @return The icon, or null if it isn't in the cache.
+	 */
+	public Bitmap getIcon(StatusBarNotification sbn) {
+		return get(key(sbn));
+	}
+
+	/**
+	 * Get the icon for a notification, loading it on a miss. This decodes the icon, so keep it off the UI thread.
+	 * @param sbn The notification.
+	 * @return The icon, or null if it couldn't be loaded.
+	 */
+	public Bitmap loadIcon(StatusBarNotification sbn) {
+		String key = key(sbn);
+		Bitmap bitmap = get(key);
+		if (bitmap != null) return bitmap;
+
+		decodes.incrementAndGet();
+		if (Looper.myLooper() == Looper.getMainLooper()) {
+			mainThreadDecodes.incrementAndGet();
+			Log.w("NIC.loadIcon", "Decoding icon on the main thread: " + key);
+		}
+
+		bitmap = decode(sbn.getPackageName(), sbn.getNotification().icon);
+		if (bitmap != null) put(key, bitmap);
+		return bitmap;
+	}
+
+	/**
+	 * Number of icons decoded so far.
+	 */
+	public int getDecodeCount() {
+		return decodes.get();
+	}
+
+	/**
+	 * Number of icons decoded on the main thread so far, which should stay at 0.
+	 */
+	public int getMainThreadDecodeCount() {
+		return mainThreadDecodes.get();
+	}
+
+	private Bitmap decode(String pkg, int icon) {
+		try {
+			Drawable drawable = package_resources(pkg).getDrawable(icon);
+
+			//draw it into a square bitmap, keeping the aspect ratio
+			int w = drawable.getIntrinsicWidth(), h = drawable.getIntrinsicHeight();
+			float scale = (w > 0 && h > 0) ? Math.min((float)size / w, (float)size / h) : 1;
+			int dw = w > 0 ? Math.round(w * scale) : size, dh = h > 0 ? Math.round(h * scale) : size;
+
+			Bitmap bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+			drawable.setBounds((size - dw) / 2, (size - dh) / 2, (size + dw) / 2, (size + dh) / 2);
+			drawable.draw(new Canvas(bitmap));
+			return bitmap;
+		} catch (NameNotFoundException e) {
+			Log.w("NIC.decode", "Package not found for icon: " + pkg + ":" + icon);
+		} catch (NotFoundException e) {
+			Log.w("NIC.decode", "Icon resource not found: " + pkg + ":" + icon);
+		}
+		return null;
+	}
+
+	@Override
+	protected int sizeOf(String key, Bitmap bitmap) {
+		return bitmap.getByteCount();
+	}
+
+	private Resources package_resources(String pkg) throws NameNotFoundException {
+		Resources res = resources.get(pkg);
+		if (res == null) {
+			res = ctx.createPackageContext(pkg, 0).getResources();
+			resources.put(pkg, res);
+		}
+		return res;
+	}
+
+	/**
+	 * Drop everything we have from a package, because it has been updated or removed.
+	 * @param pkg Package name.
+	 */
+	private void forget(String pkg) {
+		Log.d("NIC.forget", "Package changed, dropping its icons: " + pkg);
+		resources.remove(pkg);
+		String prefix = pkg + ":";
+		for (String key : snapshot().keySet()) {
+			if (key.startsWith(prefix)) remove(key);
+		}
+	}
+}
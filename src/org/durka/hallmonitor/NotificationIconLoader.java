@@ -0,0 +1,149 @@
+/* Copyright 2013 Alex Burka
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.durka.hallmonitor;
+
+import java.util.HashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.service.notification.StatusBarNotification;
+import android.util.Log;
+
+/**
+ * Decodes notification icons into the NotificationIconCache on a background thread as soon as the notifications
+ * are posted, whether or not the cover screen is showing, so the cover screen can bind them straight from memory.
+ * The queue is bounded (the oldest request is dropped when it fills up), and a request is cancelled if its
+ * notification is removed before the icon has been decoded.
+ */
+public class NotificationIconLoader {
+
+	private static final int MAX_QUEUED = 16;
+
+	private static NotificationIconLoader instance;
+
+	private final NotificationIconCache cache;
+	private final ThreadPoolExecutor executor;
+	private final Handler main = new Handler(Looper.getMainLooper());
+
+	//outstanding requests by notification key
+	private final HashMap<String, IconTask> pending = new HashMap<String, IconTask>();
+
+	private class IconTask extends FutureTask<Void> {
+		final String key;
+		final String icon;
+
+		IconTask(String key, String icon, Runnable load) {
+			super(load, null);
+			this.key = key;
+			this.icon = icon;
+		}
+
+		@Override
+		protected void done() {
+			synchronized (NotificationIconLoader.this) {
+				if (pending.get(key) == this) pending.remove(key);
+			}
+		}
+	}
+
+	private NotificationIconLoader(Context ctx) {
+		cache = NotificationIconCache.getInstance(ctx);
+		executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(MAX_QUEUED),
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "HallMonitor-icons");
+						t.setDaemon(true);
+						t.setPriority(Thread.MIN_PRIORITY);
+						return t;
+					}
+				},
+				new RejectedExecutionHandler() {
+					@Override
+					public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+						//queue is full, drop the oldest request (cancelling it so it leaves the pending map)
+						Runnable oldest = executor.getQueue().poll();
+						if (oldest instanceof IconTask) {
+							Log.d("NIL.rejected", "Dropping icon load for " + ((IconTask)oldest).key);
+							((IconTask)oldest).cancel(false);
+						}
+						executor.execute(r);
+					}
+				});
+	}
+
+	/**
+	 * Get the shared loader.
+	 * @param ctx Context, only used the first time to set up the loader.
+	 * @return The loader.
+	 */
+	public static synchronized NotificationIconLoader getInstance(Context ctx) {
+		if (instance == null) instance = new NotificationIconLoader(ctx.getApplicationContext());
+		return instance;
+	}
+
+	/**
+	 * Start decoding a notification's icon, unless it is in the cache already.
+	 * When it's done, the notification model reports the notification as changed so the UI rebinds it.
+	 * @param sbn The notification.
+	 */
+	public synchronized void prefetch(final StatusBarNotification sbn) {
+		final String key = NotificationModel.key(sbn);
+		String icon = NotificationIconCache.key(sbn);
+
+		//already on its way (the adapter asks again every time it rebinds)
+		IconTask queued = pending.get(key);
+		if (queued != null && queued.icon.equals(icon)) return;
+
+		cancel(key);
+		if (cache.getIcon(sbn) != null) return;
+
+		IconTask task = new IconTask(key, icon, new Runnable() {
+			@Override
+			public void run() {
+				if (cache.loadIcon(sbn) == null) return;
+				main.post(new Runnable() {
+					@Override
+					public void run() {
+						NotificationService.model.changed(key);
+					}
+				});
+			}
+		});
+
+		pending.put(key, task);
+		executor.execute(task);
+	}
+
+	/**
+	 * Drop the request for a notification's icon, if it hasn't been decoded yet.
+	 * @param key Key of the notification, see NotificationModel.key.
+	 */
+	public synchronized void cancel(String key) {
+		IconTask task = pending.remove(key);
+		if (task != null && task.cancel(false)) {
+			Log.d("NIL.cancel", "Cancelled icon load for " + key);
+			executor.remove(task);
+		}
+	}
+}
@@ -0,0 +1,157 @@
+/* Copyright 2013 Alex Burka
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.durka.hallmonitor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import android.service.notification.StatusBarNotification;
+import android.util.Log;
+
+/**
+ * In-process copy of the active notifications, kept up to date from the posted/removed events
+ * rather than by fetching the whole list from the notification manager each time.
+ * Notifications are identified by package, id and tag, the same way the notification manager does it.
+ * Each event is reported to the listener as a single insert, remove or change at a position, and costs the same
+ * however many notifications there are: every notification knows its position, new ones go on the end, and a
+ * removed one's place is taken by the last one, so nothing else moves.
+ * Only touch this from the main thread.
+ */
+public class NotificationModel {
+
+	/**
+	 * Receives the changes to the model.
+	 */
+	public interface Listener {
+		void onInserted(int position);
+		void onRemoved(int position);
+		void onChanged(int position);
+	}
+
+	//a notification and where it is in the list
+	private static class Entry {
+		StatusBarNotification sbn;
+		int position;
+
+		Entry(StatusBarNotification sbn, int position) {
+			this.sbn = sbn;
+			this.position = position;
+		}
+	}
+
+	//in display order
+	private final ArrayList<Entry> notifs = new ArrayList<Entry>();
+	private final HashMap<String, Entry> byKey = new HashMap<String, Entry>();
+
+	private boolean synced = false;
+	private Listener listener;
+
+	/**
+	 * Key identifying a notification across updates.
+	 */
+	public static String key(StatusBarNotification sbn) {
+		return sbn.getPackageName() + "|" + sbn.getId() + "|" + sbn.getTag();
+	}
+
+	public void setListener(Listener l) {
+		listener = l;
+	}
+
+	public boolean isSynced() {
+		return synced;
+	}
+
+	public int size() {
+		return notifs.size();
+	}
+
+	public StatusBarNotification get(int position) {
+		return notifs.get(position).sbn;
+	}
+
+	/**
+	 * Replace the whole model, e.g. with the result of getActiveNotifications() at startup.
+	 * The listener isn't told about this, whoever calls it should redraw everything.
+	 * @param active The currently active notifications.
+	 */
+	public void resync(StatusBarNotification[] active) {
+		notifs.clear();
+		byKey.clear();
+		for (StatusBarNotification sbn : active) {
+			Entry entry = new Entry(sbn, notifs.size());
+			notifs.add(entry);
+			byKey.put(key(sbn), entry);
+		}
+		synced = true;
+		Log.d("NM.resync", "resynced: " + notifs.size() + " notifications");
+	}
+
+	/**
+	 * Forget everything, e.g. because the listener service went away and we'll miss events.
+	 * The next user has to resync.
+	 */
+	public void invalidate() {
+		notifs.clear();
+		byKey.clear();
+		synced = false;
+	}
+
+	/**
+	 * A notification was posted, either new or an update of an existing one.
+	 */
+	public void posted(StatusBarNotification sbn) {
+		String key = key(sbn);
+		Entry entry = byKey.get(key);
+		if (entry == null) {
+			entry = new Entry(sbn, notifs.size());
+			notifs.add(entry);
+			byKey.put(key, entry);
+			if (listener != null) listener.onInserted(entry.position);
+		} else {
+			entry.sbn = sbn;
+			if (listener != null) listener.onChanged(entry.position);
+		}
+	}
+
+	/**
+	 * Something the UI shows for a notification changed without the notification itself being reposted,
+	 * e.g. its icon finished loading.
+	 * @param key Key of the notification, see key().
+	 */
+	public void changed(String key) {
+		Entry entry = byKey.get(key);
+		if (entry == null) return;
+
+		if (listener != null) listener.onChanged(entry.position);
+	}
+
+	/**
+	 * A notification was removed. The last notification moves into its place, which the listener hears about
+	 * as a change there followed by the removal of the last position.
+	 */
+	public void removed(StatusBarNotification sbn) {
+		Entry entry = byKey.remove(key(sbn));
+		if (entry == null) return;
+
+		int last = notifs.size() - 1;
+		Entry moved = notifs.remove(last);
+		if (moved != entry) {
+			moved.position = entry.position;
+			notifs.set(entry.position, moved);
+			if (listener != null) listener.onChanged(entry.position);
+		}
+		if (listener != null) listener.onRemoved(last);
+	}
+}
@@ -14,16 +14,8 @@
  */
 package org.durka.hallmonitor;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-
-import android.app.Service;
-import android.content.Intent;
-import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
-import android.hardware.SensorManager;
-import android.os.IBinder;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 import android.service.notification.NotificationListenerService;
 import android.service.notification.StatusBarNotification;
@@ -33,6 +25,12 @@ public class NotificationService extends NotificationListenerService {
 	
 	public static NotificationService that = null;
 	
+	//our copy of the active notifications, only touched on the main thread
+	public static final NotificationModel model = new NotificationModel();
+	
+	//the listener callbacks come in on a binder thread, so hop over to the main thread to update the model
+	private final Handler handler = new Handler(Looper.getMainLooper());
+	
 	@Override
 	public void onCreate() {
 		Log.d("NS-oC", "ohai");
@@ -43,22 +41,37 @@ public class NotificationService extends NotificationListenerService {
 	public void onDestroy() {
 		Log.d("NS-oD", "kthxbai");
 		that = null;
+		handler.post(new Runnable() {
+			@Override
+			public void run() {
+				model.invalidate();
+			}
+		});
 	}
 	
 	@Override
-	public void onNotificationPosted(StatusBarNotification sbn) {
+	public void onNotificationPosted(final StatusBarNotification sbn) {
 		Log.d("NS-oNP", "notification posted: " + sbn.toString());
-		if (DefaultActivity.on_screen) {
-			Functions.Actions.refresh_notifications();
-		}
+		//start decoding the icon now, so it's ready by the time the cover screen shows it
+		NotificationIconLoader.getInstance(this).prefetch(sbn);
+		handler.post(new Runnable() {
+			@Override
+			public void run() {
+				model.posted(sbn);
+			}
+		});
 	}
 
 	@Override
-	public void onNotificationRemoved(StatusBarNotification sbn) {
+	public void onNotificationRemoved(final StatusBarNotification sbn) {
 		Log.d("NS-oNR", "notification removed: " + sbn.toString());
-		if (DefaultActivity.on_screen) {
-			Functions.Actions.refresh_notifications();
-		}
+		NotificationIconLoader.getInstance(this).cancel(NotificationModel.key(sbn));
+		handler.post(new Runnable() {
+			@Override
+			public void run() {
+				model.removed(sbn);
+			}
+		});
 	}
 	
 	
@@ -0,0 +1,190 @@
+/* Copyright 2013 Alex Burka
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.durka.hallmonitor;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.util.AttributeSet;
+import android.view.View;
+import android.view.ViewGroup;
+
+/**
+ * Row of notification icons for the cover screen.
+ * It has as many square slots as fit across its width, each as wide as the strip is high. If there are more
+ * notifications than slots, the last slot shows "+k" for the ones left over.
+ * Changing the icons or the number of notifications only redraws the slots, the strip is laid out again
+ * only when its own size changes.
+ */
+public class NotificationStrip extends ViewGroup {
+
+	/**
+	 * Where the strip gets its icons from.
+	 */
+	public interface IconSource {
+		int getCount();
+		/**
+		 * @return The icon, or null to leave the slot empty for now.
+		 */
+		Bitmap getIcon(int position);
+	}
+
+	private IconSource source;
+	private final int spacing;
+	private final Paint badgePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+
+	//number of icons showing, not counting the badge
+	private int shown = 0;
+
+	//stats
+	private int measures = 0;
+	private int layouts = 0;
+
+	public NotificationStrip(Context ctx) {
+		this(ctx, null);
+	}
+
+	public NotificationStrip(Context ctx, AttributeSet attrs) {
+		super(ctx, attrs);
+		spacing = Math.round(4 * ctx.getResources().getDisplayMetrics().density);
+		badgePaint.setColor(0xFFFFFFFF);
+		badgePaint.setTextAlign(Paint.Align.CENTER);
+	}
+
+	public void setSource(IconSource source) {
+		this.source = source;
+		refresh();
+	}
+
+	/**
+	 * Rebind every slot, e.g. because notifications came or went.
+	 */
+	public void refresh() {
+		int count = source != null ? source.getCount() : 0;
+		int slots = getChildCount();
+
+		shown = count > slots ? slots - 1 : count;
+		for (int i = 0; i < slots; i++) {
+			Slot slot = (Slot)getChildAt(i);
+			if (i < shown) {
+				slot.set(source.getIcon(i), null);
+			} else if (i == shown && count > shown) {
+				slot.set(null, "+" + (count - shown));
+			} else {
+				slot.set(null, null);
+			}
+		}
+	}
+
+	/**
+	 * Rebind the slot for one notification, if it is showing.
+	 */
+	public void refresh(int position) {
+		if (source == null || position >= shown) return;
+		((Slot)getChildAt(position)).set(source.getIcon(position), null);
+	}
+
+	public int getMeasureCount() {
+		return measures;
+	}
+
+	public int getLayoutCount() {
+		return layouts;
+	}
+
+	@Override
+	protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+		measures++;
+		int width = getDefaultSize(getSuggestedMinimumWidth(), widthMeasureSpec);
+		int height = getDefaultSize(getSuggestedMinimumHeight(), heightMeasureSpec);
+		setMeasuredDimension(width, height);
+
+		int size = height - getPaddingTop() - getPaddingBottom();
+		int across = width - getPaddingLeft() - getPaddingRight();
+		int slots = size > 0 ? Math.max(0, (across + spacing) / (size + spacing)) : 0;
+
+		if (slots != getChildCount()) {
+			//the size changed, so make the right number of slots
+			removeAllViewsInLayout();
+			for (int i = 0; i < slots; i++) {
+				addViewInLayout(new Slot(getContext()), -1, generateDefaultLayoutParams(), true);
+			}
+			badgePaint.setTextSize(size / 2);
+			refresh();
+		}
+
+		int spec = MeasureSpec.makeMeasureSpec(Math.max(size, 0), MeasureSpec.EXACTLY);
+		for (int i = 0; i < slots; i++) {
+			getChildAt(i).measure(spec, spec);
+		}
+	}
+
+	@Override
+	protected void onLayout(boolean changed, int l, int t, int r, int b) {
+		layouts++;
+		int x = getPaddingLeft(), y = getPaddingTop();
+		for (int i = 0; i < getChildCount(); i++) {
+			View slot = getChildAt(i);
+			slot.layout(x, y, x + slot.getMeasuredWidth(), y + slot.getMeasuredHeight());
+			x += slot.getMeasuredWidth() + spacing;
+		}
+	}
+
+	@Override
+	protected LayoutParams generateDefaultLayoutParams() {
+		return new LayoutParams(LayoutParams.WRAP_CONTENT, LayoutParams.WRAP_CONTENT);
+	}
+
+	@Override
+	public boolean shouldDelayChildPressedState() {
+		return false;
+	}
+
+	/**
+	 * One slot, showing an icon or the overflow badge. Draws itself so that changing it never needs a layout pass.
+	 */
+	private class Slot extends View {
+
+		private Bitmap icon;
+		private String badge;
+		private final Rect bounds = new Rect();
+		private final Paint iconPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+		Slot(Context ctx) {
+			super(ctx);
+			setWillNotDraw(false);
+		}
+
+		void set(Bitmap icon, String badge) {
+			if (icon == this.icon && (badge == null ? this.badge == null : badge.equals(this.badge))) return;
+			this.icon = icon;
+			this.badge = badge;
+			invalidate();
+		}
+
+		@Override
+		protected void onDraw(Canvas canvas) {
+			if (icon != null) {
+				bounds.set(0, 0, getWidth(), getHeight());
+				canvas.drawBitmap(icon, null, bounds, iconPaint);
+			} else if (badge != null) {
+				float baseline = (getHeight() - badgePaint.ascent() - badgePaint.descent()) / 2;
+				canvas.drawText(badge, getWidth() / 2f, baseline, badgePaint);
+			}
+		}
+	}
+}
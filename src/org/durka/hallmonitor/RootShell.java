@@ -0,0 +1,380 @@
+/* Copyright 2013 Alex Burka
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.durka.hallmonitor;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import android.util.Log;
+
+/**
+ * A long-lived root shell. The su process is started on first use and kept running, so we don't fork a new
+ * one every time the cover opens or closes. Each command is followed by an echo of a unique marker (and its
+ * exit status) on both stdout and stderr, which is how its output gets split out of the shell's continuous
+ * output streams. Both streams are drained at the same time by their own threads, so neither can fill up
+ * and stall the shell.
+ * Several commands can be in flight at once; if the shell dies or a command times out, the shell is
+ * killed and started again for the next command. Until a new shell has answered once, commands get a much
+ * longer timeout, as su may be waiting for the user to grant us root.
+ * Results are delivered on the scheduler thread, never on the caller's.
+ */
+public class RootShell {
+
+	//how long su may take to answer the first command by default, which can include the user reading the grant prompt
+	public static final long GRANT_TIMEOUT = 2 * 60 * 1000;
+
+	/**
+	 * Receives the result of a command once it has finished (or failed).
+	 */
+	public interface Callback {
+		void onResult(Command cmd);
+	}
+
+	/**
+	 * A command sent to the shell, which completes when its marker has come back on both streams.
+	 */
+	public static class Command {
+
+		private final String command;
+		private final String marker;
+		private final Callback callback;
+		private final long timeout;
+		private final CountDownLatch done = new CountDownLatch(1);
+
+		private final long started = System.nanoTime();
+		private volatile long finished;
+
+		//filled in by the reader threads
+		private String output;
+		private String error;
+		private boolean outputDone = false;
+		private boolean errorDone = false;
+		private volatile int exitCode = -1;
+		private volatile boolean failed = false;
+
+		private Scheduler.Task timeoutTask;
+
+		private Command(String command, String marker, Callback callback, long timeout) {
+			this.command = command;
+			this.marker = marker;
+			this.callback = callback;
+			this.timeout = timeout;
+		}
+
+		/**
+		 * Wait for the command to finish.
+		 * @param timeout Timeout in milliseconds.
+		 * @return False if it didn't finish in time.
+		 */
+		public boolean await(long timeout) {
+			try {
+				return done.await(timeout, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+
+		public boolean isDone() {
+			return done.getCount() == 0;
+		}
+
+		/**
+		 * Did the command finish with exit status 0.
+		 */
+		public boolean succeeded() {
+			return isDone() && !failed && exitCode == 0;
+		}
+
+		public int getExitCode() {
+			return exitCode;
+		}
+
+		/**
+		 * Standard output of the command, trimmed.
+		 */
+		public String getOutput() {
+			return output == null ? "" : output;
+		}
+
+		/**
+		 * Standard error of the command, trimmed.
+		 */
+		public String getError() {
+			return error == null ? "" : error;
+		}
+
+		/**
+		 * Time from submitting the command to its result, in milliseconds, or -1 if it isn't done yet.
+		 */
+		public long getLatency() {
+			return isDone() ? TimeUnit.NANOSECONDS.toMillis(finished - started) : -1;
+		}
+
+		@Override
+		public String toString() {
+			return command;
+		}
+	}
+
+	private final Scheduler scheduler;
+	private final String[] shell;
+	private final long timeout;
+	private final long grantTimeout;
+
+	//markers look like __HM_<session>_<n>__
+	private final Random random = new Random();
+	private String session;
+	private int nextId = 0;
+	//whether the current shell has finished a command yet
+	private boolean answered = false;
+
+	private Process process;
+	private OutputStream stdin;
+
+	//held while writing a command, so commands reach the shell in the order they were queued; writing can
+	//block on a full pipe, so it is never done holding the main lock, which the reader threads need
+	private final Object writeLock = new Object();
+
+	//commands waiting for their marker on each stream, oldest first
+	private final LinkedList<Command> pendingOutput = new LinkedList<Command>();
+	private final LinkedList<Command> pendingError = new LinkedList<Command>();
+
+	/**
+	 * @param scheduler Scheduler to deliver results and enforce timeouts on.
+	 * @param timeout How long a command may take, in milliseconds.
+	 * @param shell Command line that starts the shell, e.g. "su".
+	 */
+	public RootShell(Scheduler scheduler, long timeout, String... shell) {
+		this(scheduler, timeout, GRANT_TIMEOUT, shell);
+	}
+
+	/**
+	 * @param scheduler Scheduler to deliver results and enforce timeouts on.
+	 * @param timeout How long a command may take, in milliseconds.
+	 * @param grantTimeout How long commands may take until the shell has answered once, in milliseconds.
+	 * @param shell Command line that starts the shell, e.g. "su".
+	 */
+	public RootShell(Scheduler scheduler, long timeout, long grantTimeout, String... shell) {
+		this.scheduler = scheduler;
+		this.timeout = timeout;
+		this.grantTimeout = grantTimeout;
+		this.shell = shell;
+	}
+
+	/**
+	 * Send a command to the shell without waiting for it.
+	 * @param command Shell command, may contain pipes, &amp;&amp; etc.
+	 * @param callback Called with the result on the scheduler thread, may be null.
+	 * @return The command, which can be waited on.
+	 */
+	public Command submit(String command, Callback callback) {
+		synchronized (writeLock) {
+			final Command cmd;
+			Process p;
+			OutputStream out;
+			synchronized (this) {
+				try {
+					if (process == null) start();
+				} catch (IOException e) {
+					Log.e("RS.submit", "Failed to start the shell!", e);
+					kill();
+					Command failed = new Command(command, "", callback, timeout);
+					fail(failed);
+					return failed;
+				}
+
+				cmd = new Command(command, "__HM_" + session + "_" + (nextId++) + "__", callback, answered ? timeout : grantTimeout);
+				pendingOutput.add(cmd);
+				pendingError.add(cmd);
+
+				cmd.timeoutTask = scheduler.schedule(new Runnable() {
+					@Override
+					public void run() {
+						timed_out(cmd);
+					}
+				}, cmd.timeout);
+
+				p = process;
+				out = stdin;
+			}
+
+			try {
+				Log.d("RS.submit", "Running command: " + command);
+				out.write((command + "\necho " + cmd.marker + " $?\necho " + cmd.marker + " >&2\n").getBytes());
+				out.flush();
+			} catch (IOException e) {
+				Log.e("RS.submit", "Failed to send command to the shell!", e);
+				synchronized (this) {
+					//(if the shell has been replaced already, killing it failed this command too)
+					if (p == process) kill();
+				}
+			}
+			return cmd;
+		}
+	}
+
+	/**
+	 * Run a command and wait for it to finish. Don't call this from the UI thread.
+	 * @param command Shell command.
+	 * @return The finished (or failed) command.
+	 */
+	public Command run(String command) {
+		Command cmd = submit(command, null);
+		//don't rely on the timeout task alone, we might be running on the scheduler thread ourselves
+		if (!cmd.await(cmd.timeout)) timed_out(cmd);
+		return cmd;
+	}
+
+	/**
+	 * Stop the shell. It will be started again by the next command.
+	 */
+	public synchronized void close() {
+		kill();
+	}
+
+	private void start() throws IOException {
+		session = Long.toHexString(random.nextLong());
+		answered = false;
+		process = new ProcessBuilder(shell).start();
+		stdin = process.getOutputStream();
+
+		Log.d("RS.start", "Shell started: " + shell[0]);
+
+		drain(process, process.getInputStream(), true);
+		drain(process, process.getErrorStream(), false);
+	}
+
+	private synchronized void timed_out(Command cmd) {
+		if (cmd.isDone()) return;
+		Log.e("RS.timed_out", "Command timed out after " + cmd.timeout + "ms, restarting the shell: " + cmd);
+		kill();
+	}
+
+	/**
+	 * Kill the shell and fail anything still waiting on it. Must hold the lock.
+	 */
+	private void kill() {
+		if (process != null) {
+			process.destroy();
+			process = null;
+			stdin = null;
+		}
+		for (Command cmd : pendingOutput) fail(cmd);
+		for (Command cmd : pendingError) fail(cmd);
+		pendingOutput.clear();
+		pendingError.clear();
+	}
+
+	private void fail(Command cmd) {
+		if (cmd.isDone()) return;
+		cmd.failed = true;
+		complete(cmd);
+	}
+
+	/**
+	 * Mark a command as done and hand it to its callback. Must hold the lock.
+	 */
+	private void complete(final Command cmd) {
+		cmd.finished = System.nanoTime();
+		if (cmd.timeoutTask != null) cmd.timeoutTask.cancel();
+		cmd.done.countDown();
+
+		Log.d("RS.complete", "Command " + (cmd.failed ? "failed" : "finished with " + cmd.exitCode)
+				+ " in " + cmd.getLatency() + "ms: " + cmd);
+
+		if (cmd.callback != null) {
+			scheduler.execute(new Runnable() {
+				@Override
+				public void run() {
+					cmd.callback.onResult(cmd);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Start a thread that reads one of the shell's output streams, handing the lines to the oldest command
+	 * still waiting on that stream until its marker shows up.
+	 */
+	private void drain(final Process p, final InputStream stream, final boolean isOutput) {
+		Thread reader = new Thread(isOutput ? "RootShell-stdout" : "RootShell-stderr") {
+			@Override
+			public void run() {
+				//reused for every command on this stream
+				StringBuilder text = new StringBuilder();
+				try {
+					BufferedReader in = new BufferedReader(new InputStreamReader(stream));
+					String line;
+					while ((line = in.readLine()) != null) {
+						synchronized (RootShell.this) {
+							if (p != process) return; //we've been replaced
+
+							Command cmd = isOutput ? pendingOutput.peek() : pendingError.peek();
+							if (cmd == null) continue; //stray output, nobody is waiting for it
+
+							int at = line.indexOf(cmd.marker);
+							if (at < 0) {
+								text.append(line).append('\n');
+								continue;
+							}
+
+							//anything before the marker is output that didn't end in a newline
+							text.append(line, 0, at);
+							if (isOutput) {
+								pendingOutput.poll();
+								cmd.output = text.toString().trim();
+								cmd.outputDone = true;
+								try {
+									cmd.exitCode = Integer.parseInt(line.substring(at + cmd.marker.length()).trim());
+								} catch (NumberFormatException e) {
+									cmd.failed = true;
+								}
+							} else {
+								pendingError.poll();
+								cmd.error = text.toString().trim();
+								cmd.errorDone = true;
+							}
+							text.setLength(0);
+
+							if (cmd.outputDone && cmd.errorDone && !cmd.isDone()) {
+								answered = true;
+								complete(cmd);
+							}
+						}
+					}
+				} catch (IOException e) {
+					Log.e("RS.drain", "Lost the shell output!", e);
+				}
+
+				synchronized (RootShell.this) {
+					if (p == process) {
+						Log.w("RS.drain", "Shell died, will restart on the next command.");
+						kill();
+					}
+				}
+			}
+		};
+		reader.setDaemon(true);
+		reader.start();
+	}
+}
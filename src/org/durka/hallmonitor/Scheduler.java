@@ -0,0 +1,159 @@
+/* Copyright 2013 Alex Burka
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.durka.hallmonitor;
+
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.util.Log;
+
+/**
+ * Runs the app's delayed actions (screen lock delay, popping up over the dialer/alarm, cover re-checks) on one
+ * shared background thread, instead of each of them starting its own java.util.Timer.
+ * Work that can block for a while (root shell results, contact lookups) goes on a second one, so it can't hold
+ * up the timers; see Functions.scheduler and Functions.background.
+ */
+public class Scheduler {
+
+	/**
+	 * Handle to a scheduled action, used to cancel it.
+	 */
+	public class Task {
+
+		private final ScheduledFuture<?> future;
+
+		Task(ScheduledFuture<?> future) {
+			this.future = future;
+		}
+
+		/**
+		 * Cancel the action if it hasn't run yet, and drop it from the queue.
+		 * @return True if the action was cancelled before it ran.
+		 */
+		public boolean cancel() {
+			if (!future.cancel(false)) return false;
+			cancelled.incrementAndGet();
+			executor.purge();
+			return true;
+		}
+
+		/**
+		 * Has the action run or been cancelled.
+		 */
+		public boolean isDone() {
+			return future.isDone();
+		}
+	}
+
+	private final ScheduledThreadPoolExecutor executor;
+
+	//counters for debugging
+	private final AtomicLong scheduled = new AtomicLong();
+	private final AtomicLong fired = new AtomicLong();
+	private final AtomicLong cancelled = new AtomicLong();
+
+	/**
+	 * @param name Name of the thread.
+	 */
+	public Scheduler(final String name) {
+		executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, name);
+				t.setDaemon(true);
+				return t;
+			}
+		}, new RejectedExecutionHandler() {
+			@Override
+			public void rejectedExecution(Runnable r, ThreadPoolExecutor pool) {
+				//only happens once we've been shut down
+				Log.w("Scheduler.schedule", "Scheduler " + name + " is shut down, dropping an action.");
+			}
+		});
+	}
+
+	/**
+	 * Run an action after a delay.
+	 * @param action What to run.
+	 * @param delay Delay in milliseconds.
+	 * @return Handle for cancelling the action.
+	 */
+	public Task schedule(final Runnable action, long delay) {
+		scheduled.incrementAndGet();
+		return new Task(executor.schedule(new Runnable() {
+			@Override
+			public void run() {
+				fired.incrementAndGet();
+				try {
+					action.run();
+				} catch (RuntimeException e) {
+					//the executor would swallow this silently
+					Log.e("Scheduler.run", "Scheduled action failed!", e);
+				}
+			}
+		}, delay, TimeUnit.MILLISECONDS));
+	}
+
+	/**
+	 * Run an action as soon as possible, off the calling thread.
+	 * @param action What to run.
+	 * @return Handle for cancelling the action.
+	 */
+	public Task execute(Runnable action) {
+		return schedule(action, 0);
+	}
+
+	/**
+	 * Stop the thread, dropping the actions that haven't run yet; actions scheduled afterwards are dropped too.
+	 * The app's own schedulers live as long as it does, this is for ones made just for a while, e.g. in tests.
+	 */
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	public boolean isShutdown() {
+		return executor.isShutdown();
+	}
+
+	public long getScheduledCount() {
+		return scheduled.get();
+	}
+
+	public long getFiredCount() {
+		return fired.get();
+	}
+
+	public long getCancelledCount() {
+		return cancelled.get();
+	}
+
+	/**
+	 * Number of actions waiting to run.
+	 */
+	public int getPendingCount() {
+		return executor.getQueue().size();
+	}
+
+	@Override
+	public String toString() {
+		return "Scheduler[scheduled=" + scheduled.get() + ", fired=" + fired.get()
+				+ ", cancelled=" + cancelled.get() + ", pending=" + getPendingCount() + "]";
+	}
+}
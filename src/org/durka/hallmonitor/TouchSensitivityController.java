@@ -0,0 +1,137 @@
+/* Copyright 2013 Alex Burka
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.durka.hallmonitor;
+
+import java.util.HashMap;
+
+import android.util.Log;
+
+/**
+ * Switches the touch screen in and out of clear cover mode (boosted sensitivity, so the screen works through
+ * the cover window) by writing to the tsp command node as root.
+ * Remembers the mode the panel is in, so it doesn't write the same mode twice, and if the cover flaps while
+ * a write is in flight only the final mode gets written once it finishes. Each write is confirmed by reading
+ * back cmd_result.
+ */
+public class TouchSensitivityController {
+
+	private static final int MODE_UNKNOWN = -1;
+	private static final int MODE_NORMAL = 0;
+	private static final int MODE_COVER = 1;
+
+	//tsp commands to enter and leave clear cover mode, per device (Build.DEVICE)
+	private static final String[] DEFAULT_COVER = {"clear_cover_mode,1"};
+	private static final String[] DEFAULT_NORMAL = {"clear_cover_mode,0"};
+	private static final HashMap<String, String[]> COVER_COMMANDS = new HashMap<String, String[]>();
+	private static final HashMap<String, String[]> NORMAL_COMMANDS = new HashMap<String, String[]>();
+	static {
+		// GT-I9195
+		COVER_COMMANDS.put("serranolte", new String[]{"module_on_master", "clear_cover_mode,3"});
+	}
+
+	private final RootShell shell;
+	private final String tspDir;
+	private final String[] coverCommands;
+	private final String[] normalCommands;
+
+	private int applied = MODE_UNKNOWN;
+	private int wanted = MODE_UNKNOWN;
+	private boolean writing = false;
+
+	/**
+	 * @param shell Root shell to run the writes in.
+	 * @param tspDir Directory holding the tsp cmd and cmd_result nodes, normally /sys/class/sec/tsp.
+	 * @param device Device name, to pick the right commands.
+	 */
+	public TouchSensitivityController(RootShell shell, String tspDir, String device) {
+		this.shell = shell;
+		this.tspDir = tspDir;
+		this.coverCommands = COVER_COMMANDS.containsKey(device) ? COVER_COMMANDS.get(device) : DEFAULT_COVER;
+		this.normalCommands = NORMAL_COMMANDS.containsKey(device) ? NORMAL_COMMANDS.get(device) : DEFAULT_NORMAL;
+	}
+
+	/**
+	 * Put the touch screen in the right mode for the cover.
+	 * @param covered True to boost the sensitivity, false to revert it.
+	 */
+	public synchronized void setCovered(boolean covered) {
+		wanted = covered ? MODE_COVER : MODE_NORMAL;
+
+		if (writing) {
+			Log.d("TSC.setCovered", "Write in flight, will apply mode " + wanted + " after it.");
+		} else if (wanted == applied) {
+			Log.d("TSC.setCovered", "Touch screen already in mode " + wanted + ", nothing to do.");
+		} else {
+			write(wanted);
+		}
+	}
+
+	/**
+	 * Forget what mode the panel is in, so the next change is written even if it looks redundant.
+	 */
+	public synchronized void reset() {
+		applied = MODE_UNKNOWN;
+	}
+
+	private void write(final int mode) {
+		writing = true;
+
+		//echo each tsp command and read back its result, e.g. "clear_cover_mode,1:OK"
+		String[] cmds = mode == MODE_COVER ? coverCommands : normalCommands;
+		StringBuilder script = new StringBuilder();
+		for (String cmd : cmds) {
+			if (script.length() > 0) script.append(" && ");
+			script.append("echo ").append(cmd).append(" > ").append(tspDir).append("/cmd")
+				.append(" && cat ").append(tspDir).append("/cmd_result");
+		}
+
+		Log.d("TSC.write", "Setting touch screen mode " + mode);
+		shell.submit(script.toString(), new RootShell.Callback() {
+			@Override
+			public void onResult(RootShell.Command cmd) {
+				written(mode, cmd);
+			}
+		});
+	}
+
+	private synchronized void written(int mode, RootShell.Command cmd) {
+		writing = false;
+
+		if (confirmed(cmd)) {
+			Log.d("TSC.written", "Touch screen mode " + mode + " applied in " + cmd.getLatency() + "ms.");
+			applied = mode;
+		} else {
+			Log.e("TSC.written", "Touch screen mode " + mode + " not confirmed, output: " + cmd.getOutput() + ", error: " + cmd.getError());
+			applied = MODE_UNKNOWN;
+		}
+
+		//the cover changed again while we were writing
+		if (wanted != mode) write(wanted);
+	}
+
+	/**
+	 * Did every tsp command report OK.
+	 */
+	private boolean confirmed(RootShell.Command cmd) {
+		if (!cmd.succeeded()) return false;
+
+		String[] results = cmd.getOutput().split("\n");
+		if (results.length == 0) return false;
+		for (String result : results) {
+			if (!result.trim().endsWith(":OK")) return false;
+		}
+		return true;
+	}
+}
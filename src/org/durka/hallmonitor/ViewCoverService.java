@@ -14,9 +14,6 @@
  */
 package org.durka.hallmonitor;
 
-import java.util.Timer;
-import java.util.TimerTask;
-
 import android.app.Service;
 import android.content.Intent;
 import android.hardware.Sensor;
@@ -32,7 +29,15 @@ import android.view.InputDevice;
 
 public class ViewCoverService extends Service implements SensorEventListener {
 	
+	//how long the proximity sensor has to be quiet before we re-check the cover
+	private static final long SETTLE_WINDOW = 500;
+	
 	private SensorManager       mSensorManager;
+	private CoverWatcher        mCoverWatcher;
+	private LidSwitchReader     mLidSwitchReader;
+	private CoverDebouncer      mCoverDebouncer;
+	private CoverPrewarmer      mCoverPrewarmer;
+	private CoverOverlay        mCoverOverlay;
 	
 	@Override
 	public int onStartCommand(Intent intent, int flags, int startId) {
@@ -46,6 +51,29 @@ public class ViewCoverService extends Service implements SensorEventListener {
 			Functions.Actions.open_cover(this);
 		} */
 		
+		//listen to the hall effect sensor directly if the kernel tells us when it changes
+		if (mCoverWatcher == null) {
+			mCoverWatcher = new CoverWatcher(getApplicationContext(), getString(R.string.hall_file), Functions.Is.hall_probe(this));
+			if (!mCoverWatcher.start()) mCoverWatcher = null;
+		}
+		
+		//the proximity sensor stays as the fallback path, for kernels that don't notify on the hall effect sensor file
+		if (mCoverDebouncer == null) {
+			mCoverDebouncer = new CoverDebouncer(getApplicationContext(), Functions.scheduler, SETTLE_WINDOW);
+		}
+		//the window the cover screen is shown in if we're not using the default activity, it is only built when first shown
+		if (mCoverOverlay == null) {
+			mCoverOverlay = new CoverOverlay(this);
+			Functions.coverOverlay = mCoverOverlay;
+		}
+		
+		//keep the battery state current from the broadcasts, so the cover screen doesn't have to ask for it
+		BatteryTracker.getInstance(getApplicationContext());
+		
+		//the proximity sensor usually goes near just before the cover closes, so use that to get the cover screen ready
+		if (mCoverPrewarmer == null) {
+			mCoverPrewarmer = new CoverPrewarmer(getApplicationContext());
+		}
 		mSensorManager = (SensorManager) getSystemService(SENSOR_SERVICE);
 		
 		mSensorManager.registerListener(this, mSensorManager.getDefaultSensor(Sensor.TYPE_PROXIMITY), SensorManager.SENSOR_DELAY_NORMAL);
@@ -56,6 +84,15 @@ public class ViewCoverService extends Service implements SensorEventListener {
 			InputDevice dev = im.getInputDevice(id);
 			Log.d("VCS-oSC", "\t" + dev.toString());
 		}
+		
+		//some kernels also report the cover as a lid switch, use that if we're allowed to read it
+		if (mLidSwitchReader == null) {
+			String lidSwitch = LidSwitchReader.find();
+			if (lidSwitch != null) {
+				mLidSwitchReader = new LidSwitchReader(getApplicationContext(), lidSwitch);
+				mLidSwitchReader.start();
+			}
+		}
 
 		return START_STICKY;
 	}
@@ -71,6 +108,21 @@ public class ViewCoverService extends Service implements SensorEventListener {
 		
 		//unregisterReceiver(receiver);
 		mSensorManager.unregisterListener(this);
+		mCoverDebouncer.cancel();
+		mCoverPrewarmer.cancel();
+		
+		Functions.coverOverlay = null;
+		mCoverOverlay.destroy();
+		
+		if (mCoverWatcher != null) {
+			mCoverWatcher.stopWatching();
+			mCoverWatcher = null;
+		}
+		
+		if (mLidSwitchReader != null) {
+			mLidSwitchReader.interrupt();
+			mLidSwitchReader = null;
+		}
 	}
 
 	@Override
@@ -84,24 +136,15 @@ public class ViewCoverService extends Service implements SensorEventListener {
 		
 		if (event.sensor.getType() == Sensor.TYPE_PROXIMITY) {	
 			Log.d("VCS.onSensorChanged", "Proximity sensor changed, value=" + event.values[0]);
-			Functions.Events.proximity(this, event.values[0]);
-			
-			//improve reliability by refiring the event 200ms afterwards
-			final float val = event.values[0];
-			Timer timer = new Timer();
-			timer.schedule(new TimerTask() {
-				@Override
-				public void run() {	
-					Functions.Events.proximity(getApplicationContext(), val);
-				}
-			}, 200);
+			//get the cover screen ready first, the debouncer may close the cover straight away
+			if (event.values[0] > 0) {
+				mCoverPrewarmer.far();
+			} else {
+				mCoverPrewarmer.near();
+			}
 			
-			timer.schedule(new TimerTask() {
-				@Override
-				public void run() {	
-					Functions.Events.proximity(getApplicationContext(), val);
-				}
-			}, 500);
+			//acts now if the sensor was quiet, and re-checks once it settles to catch late hall sensor transitions
+			mCoverDebouncer.proximity(event.values[0]);
 			
 		}
 	}
@@ -0,0 +1,165 @@
+/* Copyright 2013 Alex Burka
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.durka.hallmonitor;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.os.Debug;
+import android.test.InstrumentationTestCase;
+import android.test.UiThreadTest;
+import android.util.Log;
+import android.view.View;
+import android.view.View.MeasureSpec;
+import android.widget.TextView;
+
+/**
+ * Compares drawing the cover face with the ambient clock against drawing it with the clock, battery and
+ * notification views from the layout, by allocations (and by frame time, which is only logged), and checks that
+ * the ambient clock's updates never lay it out again.
+ */
+public class AmbientClockViewTest extends InstrumentationTestCase {
+
+	private static final int SIZE = 720;
+	private static final int FRAMES = 200;
+
+	private Canvas canvas;
+	private Bitmap icon;
+
+	private final NotificationStrip.IconSource source = new NotificationStrip.IconSource() {
+		@Override
+		public int getCount() {
+			return 30;
+		}
+
+		@Override
+		public Bitmap getIcon(int position) {
+			return icon;
+		}
+	};
+
+	@Override
+	protected void setUp() throws Exception {
+		canvas = new Canvas(Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888));
+		icon = Bitmap.createBitmap(48, 48, Bitmap.Config.ARGB_8888);
+		CoverScreen.alarm_firing = false;
+		CoverScreen.phone_ringing = false;
+	}
+
+	private static void layout(View view) {
+		int spec = MeasureSpec.makeMeasureSpec(SIZE, MeasureSpec.EXACTLY);
+		view.measure(spec, spec);
+		view.layout(0, 0, SIZE, SIZE);
+	}
+
+	/**
+	 * Draw a view a number of times.
+	 * @return How long a frame took on average, in nanoseconds.
+	 */
+	private long draw(View view, int frames) {
+		long start = System.nanoTime();
+		for (int i = 0; i < frames; i++) view.draw(canvas);
+		return (System.nanoTime() - start) / frames;
+	}
+
+	/**
+	 * Count the allocations on this thread while drawing a view.
+	 */
+	private int allocations(View view, int frames) {
+		Debug.resetThreadAllocCount();
+		Debug.startAllocCounting();
+		try {
+			draw(view, frames);
+		} finally {
+			Debug.stopAllocCounting();
+		}
+		return Debug.getThreadAllocCount();
+	}
+
+	/**
+	 * A cover screen showing our clock, drawn with the layout views or with the ambient clock.
+	 */
+	private View coverFace(boolean ambient) {
+		CoverScreen screen = new CoverScreen(getInstrumentation().getTargetContext());
+		screen.setNotificationSource(source);
+		//(as if showing, so the ambient clock starts and shows the time)
+		boolean onScreen = CoverScreen.on_screen;
+		CoverScreen.on_screen = true;
+		screen.render(new CoverState(CoverState.MODE_NORMAL, null, 0xFF000000, 0xFFFFFFFF, null, false, ambient));
+		CoverScreen.on_screen = onScreen;
+		screen.destroy();
+
+		View root = screen.getView();
+		//the layout's clock only shows the time once it is attached to a window
+		((TextView)root.findViewById(R.id.default_text_clock)).setText("12:34");
+		layout(root);
+		draw(root, 10); //warm up
+		return root;
+	}
+
+	@UiThreadTest
+	public void testDrawingDoesNotAllocate() {
+		AmbientClockView clock = new AmbientClockView(getInstrumentation().getTargetContext());
+		clock.setSource(source);
+		clock.setBattery(57, true);
+		layout(clock);
+		clock.start();
+		clock.stop();
+		draw(clock, 10);
+
+		assertEquals(0, allocations(clock, FRAMES));
+	}
+
+	@UiThreadTest
+	public void testUpdatesDontRelayout() {
+		AmbientClockView clock = new AmbientClockView(getInstrumentation().getTargetContext());
+		clock.setSource(source);
+		layout(clock);
+		int measures = clock.getMeasureCount();
+		int layouts = clock.getLayoutCount();
+
+		//a tick, battery changes, notifications changing, and the color changing
+		clock.start();
+		clock.stop();
+		for (int i = 0; i < 100; i++) {
+			clock.setBattery(i, i % 2 == 0);
+			clock.refresh();
+			clock.refresh(0);
+		}
+		clock.setColor(0xFF808080);
+		assertFalse(clock.isLayoutRequested());
+
+		layout(clock);
+		assertEquals(measures, clock.getMeasureCount());
+		assertEquals(layouts, clock.getLayoutCount());
+	}
+
+	@UiThreadTest
+	public void testCheaperThanLayout() {
+		View layoutFace = coverFace(false);
+		View ambientFace = coverFace(true);
+
+		long layoutTime = draw(layoutFace, FRAMES);
+		long ambientTime = draw(ambientFace, FRAMES);
+		int layoutAllocs = allocations(layoutFace, FRAMES);
+		int ambientAllocs = allocations(ambientFace, FRAMES);
+
+		Log.d("ACVT.cheaper", "per frame, layout: " + layoutTime / 1000 + "us, ambient: " + ambientTime / 1000 + "us; "
+				+ "allocations over " + FRAMES + " frames, layout: " + layoutAllocs + ", ambient: " + ambientAllocs);
+		//(the frame times are only logged, they are too noisy to assert on)
+		assertTrue("layout " + layoutAllocs + ", ambient " + ambientAllocs, ambientAllocs <= layoutAllocs);
+		//and all those frames didn't make the ambient face lay itself out again
+		assertFalse(ambientFace.isLayoutRequested());
+	}
+}
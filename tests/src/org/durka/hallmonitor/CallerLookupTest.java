@@ -0,0 +1,163 @@
+/* Copyright 2013 Alex Burka
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.durka.hallmonitor;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import android.content.Context;
+import android.test.InstrumentationTestCase;
+import android.test.UiThreadTest;
+import android.widget.TextView;
+
+/**
+ * Checks that the caller lookup started by an incoming call, or by the ringing screen, runs off the calling thread,
+ * and that its result only lands if the call is still the current one.
+ */
+public class CallerLookupTest extends InstrumentationTestCase {
+
+	private static final long TIMEOUT = 5000;
+	//reserved for fiction, so it won't be in the contacts
+	private static final String NUMBER = "+1 (555) 010-0199";
+	private static final String OTHER_NUMBER = "+1 (555) 010-0198";
+
+	private Context ctx;
+	private ContactNameCache names;
+	private CountDownLatch release;
+
+	@Override
+	protected void setUp() throws Exception {
+		ctx = getInstrumentation().getTargetContext();
+		names = ContactNameCache.getInstance(ctx);
+		names.evictAll();
+		release = new CountDownLatch(1);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		release.countDown();
+		CoverScreen.phone_ringing = false;
+		CoverScreen.call_from = "";
+		CoverScreen.call_from_name = null;
+	}
+
+	/**
+	 * Hold up the background thread until release is counted down.
+	 */
+	private void block() {
+		Functions.background.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					release.await(TIMEOUT, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Wait for everything queued on the background thread so far.
+	 */
+	private void drain() throws InterruptedException {
+		final CountDownLatch drained = new CountDownLatch(1);
+		Functions.background.execute(new Runnable() {
+			@Override
+			public void run() {
+				drained.countDown();
+			}
+		});
+		assertTrue(drained.await(TIMEOUT, TimeUnit.MILLISECONDS));
+	}
+
+	public void testLookupIsOffTheCallingThread() throws Exception {
+		block();
+		CoverScreen.call_from = NUMBER;
+		CoverScreen.call_from_name = null;
+		int created = names.createCount();
+
+		Functions.Events.lookup_caller(ctx, NUMBER);
+
+		//nothing was looked up on this thread
+		assertEquals(created, names.createCount());
+		assertNull(CoverScreen.call_from_name);
+
+		release.countDown();
+		drain();
+
+		assertEquals(created + 1, names.createCount());
+		//not a contact, so it shows the number as it came in
+		assertEquals(NUMBER, CoverScreen.call_from_name);
+	}
+
+	public void testSecondLookupIsCached() throws Exception {
+		CoverScreen.call_from = NUMBER;
+		Functions.Events.lookup_caller(ctx, NUMBER);
+		drain();
+		int created = names.createCount();
+
+		CoverScreen.call_from_name = null;
+		Functions.Events.lookup_caller(ctx, NUMBER);
+		drain();
+
+		assertEquals(created, names.createCount());
+		assertEquals(NUMBER, CoverScreen.call_from_name);
+	}
+
+	public void testStaleResultIsDropped() throws Exception {
+		block();
+		CoverScreen.call_from = NUMBER;
+		CoverScreen.call_from_name = null;
+		Functions.Events.lookup_caller(ctx, NUMBER);
+
+		//another call replaces this one before the lookup is done
+		CoverScreen.call_from = OTHER_NUMBER;
+
+		release.countDown();
+		drain();
+
+		assertNull(CoverScreen.call_from_name);
+	}
+
+	@UiThreadTest
+	public void testRingingRefreshLooksUpInBackground() throws Exception {
+		block();
+		//ringing, but we missed the incoming call event, so the screen has to ask for the name itself
+		CoverScreen.phone_ringing = true;
+		CoverScreen.call_from = NUMBER;
+		CoverScreen.call_from_name = null;
+		CoverScreen screen = new CoverScreen(ctx);
+		try {
+			int created = names.createCount();
+
+			screen.refreshDisplay();
+
+			//nothing was looked up on the main thread, and the number shows until the name comes
+			assertEquals(created, names.createCount());
+			assertNull(CoverScreen.call_from_name);
+			assertEquals(NUMBER, ((TextView)screen.getView().findViewById(R.id.call_from)).getText().toString());
+
+			//the lookup was left waiting on the background thread
+			//(waiting for it here is fine, it doesn't need this thread; anything it posts back runs after the test)
+			release.countDown();
+			drain();
+			assertEquals(created + 1, names.createCount());
+			assertEquals(NUMBER, CoverScreen.call_from_name);
+		} finally {
+			screen.destroy();
+		}
+	}
+}
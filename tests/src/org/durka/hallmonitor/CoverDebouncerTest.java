@@ -0,0 +1,273 @@
+/* Copyright 2013 Alex Burka
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.durka.hallmonitor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import android.util.Log;
+
+import junit.framework.TestCase;
+
+/**
+ * Drives CoverDebouncer in virtual time, with a scheduler that only runs its actions when the test moves the
+ * clock on, and records the cover checks it makes.
+ */
+public class CoverDebouncerTest extends TestCase {
+
+	//the same as ViewCoverService uses
+	private static final long WINDOW = 500;
+
+	private final List<Float> checks = new ArrayList<Float>();
+
+	private ManualScheduler scheduler;
+	private CoverDebouncer debouncer;
+
+	/**
+	 * An action waiting for the virtual clock to reach it.
+	 */
+	private static class VirtualFuture implements ScheduledFuture<Object> {
+
+		final Runnable action;
+		final long due;
+		final List<VirtualFuture> queue;
+		boolean ran = false;
+		boolean cancelled = false;
+
+		VirtualFuture(Runnable action, long due, List<VirtualFuture> queue) {
+			this.action = action;
+			this.due = due;
+			this.queue = queue;
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			if (isDone()) return false;
+			cancelled = true;
+			queue.remove(this);
+			return true;
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return cancelled;
+		}
+
+		@Override
+		public boolean isDone() {
+			return ran || cancelled;
+		}
+
+		@Override
+		public Object get() {
+			return null;
+		}
+
+		@Override
+		public Object get(long timeout, TimeUnit unit) {
+			return null;
+		}
+
+		@Override
+		public long getDelay(TimeUnit unit) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public int compareTo(Delayed other) {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	/**
+	 * Runs actions on the test's thread as the virtual clock passes them, and never starts a thread of its own.
+	 * It is also the debouncer's clock.
+	 */
+	private static class ManualScheduler extends Scheduler implements CoverDebouncer.Clock {
+
+		long now = 1000;
+		//in the order they were scheduled
+		final List<VirtualFuture> queue = new ArrayList<VirtualFuture>();
+
+		ManualScheduler() {
+			super("CoverDebouncerTest");
+		}
+
+		@Override
+		public Task schedule(Runnable action, long delay) {
+			VirtualFuture future = new VirtualFuture(action, now + delay, queue);
+			queue.add(future);
+			return new Task(future);
+		}
+
+		@Override
+		public int getPendingCount() {
+			return queue.size();
+		}
+
+		@Override
+		public long uptimeMillis() {
+			return now;
+		}
+
+		/**
+		 * Move the clock on, running the actions that fall due on the way in time order.
+		 */
+		void advance(long millis) {
+			long end = now + millis;
+			while (true) {
+				VirtualFuture next = null;
+				for (VirtualFuture future : queue) {
+					if (future.due <= end && (next == null || future.due < next.due)) next = future;
+				}
+				if (next == null) break;
+				queue.remove(next);
+				now = next.due;
+				next.ran = true;
+				next.action.run();
+			}
+			now = end;
+		}
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		scheduler = new ManualScheduler();
+		debouncer = new CoverDebouncer(null, scheduler, WINDOW, scheduler) {
+			@Override
+			void checkCover(float value) {
+				checks.add(value);
+			}
+		};
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		debouncer.cancel();
+		scheduler.shutdown();
+	}
+
+	private float last() {
+		return checks.get(checks.size() - 1);
+	}
+
+	public void testFirstChangeActsNow() {
+		debouncer.proximity(0);
+		assertEquals(1, checks.size());
+		assertEquals(0f, last(), 0);
+
+		//then once more when it settles, and not before
+		scheduler.advance(WINDOW - 1);
+		assertEquals(1, checks.size());
+		scheduler.advance(1);
+		assertEquals(2, checks.size());
+		assertEquals(0f, last(), 0);
+		assertEquals(0, scheduler.getPendingCount());
+	}
+
+	public void testBurstIsCoalesced() {
+		debouncer.proximity(0);
+		for (int i = 1; i <= 10; i++) {
+			scheduler.advance(10);
+			debouncer.proximity(i % 2 == 0 ? 0 : 5);
+		}
+		//only the first change went through straight away, with a single check pending
+		assertEquals(1, checks.size());
+		assertEquals(1, scheduler.getPendingCount());
+		assertEquals(10, scheduler.getCancelledCount());
+
+		//and that check has the latest value, a whole window after the last flap
+		scheduler.advance(WINDOW - 1);
+		assertEquals(1, checks.size());
+		scheduler.advance(1);
+		assertEquals(2, checks.size());
+		assertEquals(0f, last(), 0);
+	}
+
+	public void testQuietPeriodActsNowAgain() {
+		debouncer.proximity(0);
+		scheduler.advance(WINDOW - 1);
+		debouncer.proximity(5);
+		assertEquals(1, checks.size());
+
+		//the follow-up check for the 5
+		scheduler.advance(WINDOW);
+		assertEquals(2, checks.size());
+		assertEquals(5f, last(), 0);
+
+		//exactly a window since the last change counts as quiet
+		debouncer.proximity(0);
+		assertEquals(3, checks.size());
+		assertEquals(0f, last(), 0);
+
+		scheduler.advance(WINDOW);
+		assertEquals(4, checks.size());
+	}
+
+	public void testCancel() {
+		debouncer.proximity(5);
+		debouncer.cancel();
+		assertEquals(0, scheduler.getPendingCount());
+
+		scheduler.advance(10 * WINDOW);
+		assertEquals(1, checks.size());
+	}
+
+	/**
+	 * A noisy proximity sensor reporting at 50Hz for two seconds, against what the old code did for each event:
+	 * check at once, then again 200ms and 500ms later, from a new java.util.Timer (and so a new thread) each time.
+	 */
+	public void testStorm() {
+		final int events = 100;
+		final long interval = 20;
+		int threads = Thread.activeCount();
+
+		for (int i = 0; i < events; i++) {
+			debouncer.proximity(i % 2 == 0 ? 0 : 5);
+			scheduler.advance(interval);
+		}
+		scheduler.advance(WINDOW);
+		int debounced = checks.size();
+
+		//the old way, in the same virtual time
+		final int[] old = { 0 };
+		Runnable check = new Runnable() {
+			@Override
+			public void run() {
+				old[0]++;
+			}
+		};
+		ManualScheduler timers = new ManualScheduler();
+		for (int i = 0; i < events; i++) {
+			check.run();
+			timers.schedule(check, 200);
+			timers.schedule(check, 500);
+			timers.advance(interval);
+		}
+		timers.advance(500);
+
+		Log.d("CDT.storm", events + " events: " + debounced + " hall reads debounced, " + old[0] + " re-firing");
+		//one straight away, one once it settled
+		assertEquals(2, debounced);
+		assertEquals(3 * events, old[0]);
+		assertEquals(0, scheduler.getPendingCount());
+		assertEquals(events - 1, scheduler.getCancelledCount());
+		//and no thread was started for any of it
+		assertEquals(threads, Thread.activeCount());
+	}
+}
@@ -0,0 +1,118 @@
+/* Copyright 2013 Alex Burka
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.durka.hallmonitor;
+
+import android.test.InstrumentationTestCase;
+import android.test.UiThreadTest;
+
+/**
+ * Counts the view changes the cover screen makes for each refresh, to check that only what differs from the
+ * last refresh is touched.
+ */
+public class CoverScreenRenderTest extends InstrumentationTestCase {
+
+	private static final int BG = 0xFF000000;
+	private static final int FG = 0xFFFFFFFF;
+
+	private CoverScreen screen;
+
+	@Override
+	protected void setUp() throws Exception {
+		CoverScreen.alarm_firing = false;
+		CoverScreen.phone_ringing = false;
+		getInstrumentation().runOnMainSync(new Runnable() {
+			@Override
+			public void run() {
+				screen = new CoverScreen(getInstrumentation().getTargetContext());
+			}
+		});
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		getInstrumentation().runOnMainSync(new Runnable() {
+			@Override
+			public void run() {
+				screen.destroy();
+			}
+		});
+	}
+
+	private static CoverState normal(int bg, boolean torch, boolean ambient) {
+		return new CoverState(CoverState.MODE_NORMAL, null, bg, FG, null, torch, ambient);
+	}
+
+	private static CoverState phone(String caller) {
+		return new CoverState(CoverState.MODE_PHONE, null, BG, FG, caller, false, false);
+	}
+
+	/**
+	 * Render a state and return how many view changes it took.
+	 */
+	private int render(CoverState state) {
+		int before = screen.getMutationCount();
+		screen.render(state);
+		return screen.getMutationCount() - before;
+	}
+
+	@UiThreadTest
+	public void testSameStateChangesNothing() {
+		assertTrue(render(normal(BG, false, false)) > 0);
+		assertEquals(0, render(normal(BG, false, false)));
+		assertEquals(0, render(normal(BG, false, false)));
+		assertEquals(3, screen.getRenderCount());
+	}
+
+	@UiThreadTest
+	public void testOnlyChangedPartsAreTouched() {
+		render(normal(BG, false, false));
+
+		//the torch button
+		assertEquals(1, render(normal(BG, true, false)));
+		assertEquals(1, render(normal(BG, false, false)));
+
+		//the colors: background and text
+		assertEquals(2, render(normal(0xFF102030, false, false)));
+		assertEquals(0, render(normal(0xFF102030, false, false)));
+		render(normal(BG, false, false));
+
+		//the controls: three content panes, plus the caller's name
+		assertEquals(4, render(phone("Alice")));
+		assertEquals(0, render(phone("Alice")));
+		assertEquals(1, render(phone("Bob")));
+		assertEquals(3, render(normal(BG, false, false)));
+	}
+
+	@UiThreadTest
+	public void testAmbientClockSwap() {
+		render(normal(BG, false, false));
+
+		//swapping the clock for the ambient clock, and back
+		assertEquals(5, render(normal(BG, false, true)));
+		assertEquals(0, render(normal(BG, false, true)));
+		assertEquals(5, render(normal(BG, false, false)));
+	}
+
+	@UiThreadTest
+	public void testRefreshDisplayTwice() {
+		screen.refreshDisplay();
+		int mutations = screen.getMutationCount();
+
+		//nothing changed in between, so the second refresh is free
+		screen.refreshDisplay();
+		assertEquals(mutations, screen.getMutationCount());
+		assertEquals(2, screen.getRenderCount());
+	}
+}
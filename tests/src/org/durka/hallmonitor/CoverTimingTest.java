@@ -0,0 +1,127 @@
+/* Copyright 2013 Alex Burka
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.durka.hallmonitor;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+/**
+ * Shows and hides the cover screen a number of times through Functions.Actions, first in the overlay window and
+ * then in the default activity, and logs how long each took on average according to CoverTiming.
+ * The screen has to be on (the cover open) for anything to be drawn.
+ */
+public class CoverTimingTest extends InstrumentationTestCase {
+
+	private static final long TIMEOUT = 5000;
+	private static final int CYCLES = 10;
+
+	private Context ctx;
+	private SharedPreferences prefs;
+	private boolean savedOverlay;
+	private CoverOverlay savedCoverOverlay;
+	private CoverOverlay overlay;
+
+	@Override
+	protected void setUp() throws Exception {
+		ctx = getInstrumentation().getTargetContext();
+		prefs = PreferenceManager.getDefaultSharedPreferences(ctx);
+		savedOverlay = prefs.getBoolean("pref_overlay", false);
+		savedCoverOverlay = Functions.coverOverlay;
+		//(so the settings are listening for the change below)
+		HallMonitorSettings.get(ctx);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		Functions.Actions.hide_cover(ctx);
+		getInstrumentation().runOnMainSync(new Runnable() {
+			@Override
+			public void run() {
+				if (overlay != null) overlay.destroy();
+				if (Functions.defaultActivity != null) Functions.defaultActivity.finish();
+			}
+		});
+		Functions.coverOverlay = savedCoverOverlay;
+		setOverlay(savedOverlay);
+	}
+
+	/**
+	 * Switch the overlay preference, and wait for the settings to follow.
+	 */
+	private void setOverlay(boolean on) throws InterruptedException {
+		prefs.edit().putBoolean("pref_overlay", on).commit();
+		long end = SystemClock.uptimeMillis() + TIMEOUT;
+		while (HallMonitorSettings.get(ctx).overlay != on && SystemClock.uptimeMillis() < end) {
+			Thread.sleep(10);
+		}
+		assertEquals(on, HallMonitorSettings.get(ctx).overlay);
+	}
+
+	/**
+	 * Wait for CoverTiming to have timed a show or a hide.
+	 */
+	private void await(boolean inOverlay, boolean show, int count) throws InterruptedException {
+		long end = SystemClock.uptimeMillis() + TIMEOUT;
+		while ((show ? CoverTiming.getShowCount(inOverlay) : CoverTiming.getHideCount(inOverlay)) < count
+				&& SystemClock.uptimeMillis() < end) {
+			Thread.sleep(10);
+		}
+		assertEquals(count, show ? CoverTiming.getShowCount(inOverlay) : CoverTiming.getHideCount(inOverlay));
+	}
+
+	/**
+	 * Show and hide the cover screen CYCLES times, each time waiting for it to be drawn and then to be stopped.
+	 * @return Average show and hide times in milliseconds.
+	 */
+	private long[] cycle(boolean inOverlay) throws InterruptedException {
+		int shows = CoverTiming.getShowCount(inOverlay), hides = CoverTiming.getHideCount(inOverlay);
+		long showTime = CoverTiming.getShowTime(inOverlay), hideTime = CoverTiming.getHideTime(inOverlay);
+
+		for (int i = 1; i <= CYCLES; i++) {
+			Functions.Actions.show_cover(ctx);
+			await(inOverlay, true, shows + i);
+			Functions.Actions.hide_cover(ctx);
+			await(inOverlay, false, hides + i);
+		}
+
+		return new long[] {
+				(CoverTiming.getShowTime(inOverlay) - showTime) / CYCLES,
+				(CoverTiming.getHideTime(inOverlay) - hideTime) / CYCLES };
+	}
+
+	public void testOverlayAgainstActivity() throws Exception {
+		setOverlay(true);
+		getInstrumentation().runOnMainSync(new Runnable() {
+			@Override
+			public void run() {
+				overlay = new CoverOverlay(ctx);
+			}
+		});
+		Functions.coverOverlay = overlay;
+		long[] overlayTimes = cycle(true);
+
+		setOverlay(false);
+		long[] activityTimes = cycle(false);
+
+		//the times are only logged, as they depend on the device; the counts checked above are what's asserted
+		Log.d("CTT.compare", CYCLES + " cycles: overlay show " + overlayTimes[0] + "ms, hide " + overlayTimes[1]
+				+ "ms; activity show " + activityTimes[0] + "ms, hide " + activityTimes[1] + "ms");
+		Log.d("CTT.compare", "all so far: " + CoverTiming.stats());
+	}
+}
@@ -0,0 +1,164 @@
+/* Copyright 2013 Alex Burka
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.durka.hallmonitor;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Rewrites a temp file standing in for the sysfs node from another thread, and checks what CoverWatcher reports.
+ */
+public class CoverWatcherTest extends TestCase {
+
+	private static final long TIMEOUT = 5000;
+
+	private File node;
+	private HallProbe probe;
+	private RecordingWatcher watcher;
+
+	private class RecordingWatcher extends CoverWatcher {
+
+		final List<Boolean> reported = new ArrayList<Boolean>();
+
+		RecordingWatcher() {
+			super(null, node.getPath(), probe);
+		}
+
+		@Override
+		void changed(boolean closed) {
+			synchronized (reported) {
+				reported.add(closed);
+				reported.notifyAll();
+			}
+		}
+
+		/**
+		 * Wait until the last report is the given state.
+		 */
+		boolean awaitLast(boolean closed) throws InterruptedException {
+			long end = System.currentTimeMillis() + TIMEOUT;
+			synchronized (reported) {
+				while (reported.isEmpty() || reported.get(reported.size() - 1) != closed) {
+					long left = end - System.currentTimeMillis();
+					if (left <= 0) return false;
+					reported.wait(left);
+				}
+				return true;
+			}
+		}
+
+		List<Boolean> copy() {
+			synchronized (reported) {
+				return new ArrayList<Boolean>(reported);
+			}
+		}
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		node = File.createTempFile("hall", null);
+		write("OPEN");
+		probe = new HallProbe(node.getPath());
+		watcher = new RecordingWatcher();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		watcher.stopWatching();
+		probe.close();
+		node.delete();
+	}
+
+	private void write(String contents) throws IOException {
+		FileOutputStream out = new FileOutputStream(node);
+		out.write(contents.getBytes());
+		out.close();
+	}
+
+	public void testMissingFile() {
+		node.delete();
+		assertFalse(watcher.start());
+	}
+
+	public void testReportsChanges() throws Exception {
+		assertTrue(watcher.start());
+
+		write("CLOSE\n");
+		assertTrue(watcher.awaitLast(true));
+		write("OPEN\n");
+		assertTrue(watcher.awaitLast(false));
+
+		assertEquals(2, watcher.copy().size());
+	}
+
+	public void testDropsRepeats() throws Exception {
+		assertTrue(watcher.start());
+
+		//the initial state is read on start, so rewriting it isn't a change
+		for (int i = 0; i < 20; i++) write("OPEN\n");
+		write("CLOSE\n");
+		for (int i = 0; i < 20; i++) write("CLOSE\n");
+		assertTrue(watcher.awaitLast(true));
+		Thread.sleep(100); //let any stray events through
+
+		List<Boolean> reported = watcher.copy();
+		assertEquals(1, reported.size());
+		assertEquals(Boolean.TRUE, reported.get(0));
+	}
+
+	public void testWriterThread() throws Exception {
+		assertTrue(watcher.start());
+
+		final int flips = 200;
+		final IOException[] failure = new IOException[1];
+		Thread writer = new Thread("CoverWatcherTest-writer") {
+			@Override
+			public void run() {
+				try {
+					for (int i = 0; i < flips; i++) {
+						write(i % 2 == 0 ? "CLOSE\n" : "OPEN\n");
+						if (i % 10 == 0) Thread.sleep(1);
+					}
+					write("CLOSE\n");
+				} catch (IOException e) {
+					failure[0] = e;
+				} catch (InterruptedException e) {
+					// just stop
+				}
+			}
+		};
+		writer.start();
+		writer.join(TIMEOUT);
+		assertNull(failure[0]);
+
+		//some flips can be missed, as the node is read after the event, but the last state always gets through
+		assertTrue(watcher.awaitLast(true));
+		Thread.sleep(100);
+
+		List<Boolean> reported = watcher.copy();
+		assertTrue(reported.size() <= flips + 1);
+		assertEquals(Boolean.TRUE, reported.get(reported.size() - 1));
+		//every report is a change
+		for (int i = 1; i < reported.size(); i++) {
+			assertFalse("repeated state at " + i, reported.get(i).equals(reported.get(i - 1)));
+		}
+		assertEquals(Boolean.TRUE, reported.get(0));
+	}
+}
@@ -0,0 +1,112 @@
+/* Copyright 2013 Alex Burka
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.durka.hallmonitor;
+
+import android.content.SharedPreferences;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+/**
+ * Checks that HallMonitorSettings follows preference changes, and that reading it allocates nothing, logging how
+ * long it takes against reading the preferences.
+ */
+public class HallMonitorSettingsTest extends AndroidTestCase {
+
+	private static final long TIMEOUT = 5000;
+
+	private SharedPreferences prefs;
+	private int savedDelay;
+
+	@Override
+	protected void setUp() throws Exception {
+		prefs = PreferenceManager.getDefaultSharedPreferences(getContext());
+		savedDelay = prefs.getInt("pref_delay", 10000);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		prefs.edit().putInt("pref_delay", savedDelay).commit();
+	}
+
+	/**
+	 * Wait for the snapshot to be rebuilt, which happens on the main thread.
+	 */
+	private HallMonitorSettings awaitChange(HallMonitorSettings old) throws InterruptedException {
+		long end = SystemClock.uptimeMillis() + TIMEOUT;
+		HallMonitorSettings settings;
+		while ((settings = HallMonitorSettings.get(getContext())) == old && SystemClock.uptimeMillis() < end) {
+			Thread.sleep(10);
+		}
+		return settings;
+	}
+
+	public void testSnapshotIsShared() {
+		HallMonitorSettings settings = HallMonitorSettings.get(getContext());
+		assertSame(settings, HallMonitorSettings.get(getContext()));
+		assertEquals(prefs.getInt("pref_delay", 10000), settings.delay);
+	}
+
+	public void testRebuiltOnChange() throws Exception {
+		HallMonitorSettings before = HallMonitorSettings.get(getContext());
+		int delay = before.delay + 1000;
+
+		prefs.edit().putInt("pref_delay", delay).commit();
+		HallMonitorSettings after = awaitChange(before);
+
+		assertNotSame(before, after);
+		assertEquals(delay, after.delay);
+		//the old snapshot is left alone, for anyone still using it
+		assertEquals(delay - 1000, before.delay);
+	}
+
+	/**
+	 * Times reads from the snapshot against the same reads from SharedPreferences. The times are only logged, as
+	 * they are too noisy to assert on; what is checked is that every read is the same snapshot, with nothing
+	 * allocated to get it.
+	 */
+	public void testReadsAreFree() {
+		final int reads = 100000;
+		HallMonitorSettings first = HallMonitorSettings.get(getContext());
+
+		int same = 0;
+		long sum = 0;
+		Debug.resetThreadAllocCount();
+		Debug.startAllocCounting();
+		long start = SystemClock.elapsedRealtimeNanos();
+		for (int i = 0; i < reads; i++) {
+			HallMonitorSettings settings = HallMonitorSettings.get(getContext());
+			if (settings == first) same++;
+			sum += settings.delay + (settings.runAsRoot ? 1 : 0) + (settings.phoneControls ? 1 : 0);
+		}
+		long snapshot = SystemClock.elapsedRealtimeNanos() - start;
+		Debug.stopAllocCounting();
+		int allocations = Debug.getThreadAllocCount();
+
+		start = SystemClock.elapsedRealtimeNanos();
+		for (int i = 0; i < reads; i++) {
+			sum += prefs.getInt("pref_delay", 10000) + (prefs.getBoolean("pref_runasroot", false) ? 1 : 0)
+					+ (prefs.getBoolean("pref_phone_controls", false) ? 1 : 0);
+		}
+		long direct = SystemClock.elapsedRealtimeNanos() - start;
+
+		Log.d("HMST.reads", reads + " reads: snapshot " + snapshot / 1000 + "us (" + allocations + " allocations), preferences "
+				+ direct / 1000 + "us (" + sum + ")");
+		assertEquals(reads, same);
+		assertEquals(0, allocations);
+	}
+}
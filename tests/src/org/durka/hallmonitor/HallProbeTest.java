@@ -0,0 +1,155 @@
+/* Copyright 2013 Alex Burka
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.durka.hallmonitor;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Scanner;
+
+import android.os.Debug;
+import android.util.Log;
+
+import junit.framework.TestCase;
+
+/**
+ * Runs HallProbe against a temp file standing in for the sysfs node.
+ * This is a plain TestCase, but it runs on the device with the rest of the tests project rather than on a desktop
+ * JVM: HallProbe logs through android.util.Log, and the comparison with Scanner counts allocations with
+ * android.os.Debug, and off a device the SDK's android.jar only has stubs of those that throw.
+ */
+public class HallProbeTest extends TestCase {
+
+	private File node;
+	private HallProbe probe;
+
+	@Override
+	protected void setUp() throws Exception {
+		node = File.createTempFile("hall", null);
+		probe = new HallProbe(node.getPath());
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		probe.close();
+		node.delete();
+	}
+
+	private void write(String contents) throws IOException {
+		FileOutputStream out = new FileOutputStream(node);
+		out.write(contents.getBytes());
+		out.close();
+	}
+
+	public void testStates() throws IOException {
+		write("CLOSE");
+		assertEquals(HallProbe.STATE_CLOSED, probe.read());
+		assertTrue(probe.isClosed());
+
+		write("OPEN");
+		assertEquals(HallProbe.STATE_OPEN, probe.read());
+		assertFalse(probe.isClosed());
+	}
+
+	public void testLineEndings() throws IOException {
+		write("CLOSE\n");
+		assertEquals(HallProbe.STATE_CLOSED, probe.read());
+		write("OPEN\r\n");
+		assertEquals(HallProbe.STATE_OPEN, probe.read());
+	}
+
+	public void testUnexpectedContents() throws IOException {
+		write("");
+		assertEquals(HallProbe.STATE_UNKNOWN, probe.read());
+		write("CLO");
+		assertEquals(HallProbe.STATE_UNKNOWN, probe.read());
+		write("CLOSED");
+		assertEquals(HallProbe.STATE_UNKNOWN, probe.read());
+		write("OPEN CLOSE");
+		assertEquals(HallProbe.STATE_UNKNOWN, probe.read());
+		//longer than the buffer
+		write("CLOSE\n\n\n\n\n\n\n\n\n\n\n\n\n\n\n\n\n\n");
+		assertEquals(HallProbe.STATE_UNKNOWN, probe.read());
+	}
+
+	public void testRereadsFromTheStart() throws IOException {
+		//the handle stays open between reads, and a shorter value must not leave bytes of the old one behind
+		for (int i = 0; i < 100; i++) {
+			write("CLOSE\n");
+			assertEquals(HallProbe.STATE_CLOSED, probe.read());
+			write("OPEN\n");
+			assertEquals(HallProbe.STATE_OPEN, probe.read());
+		}
+	}
+
+	public void testMissingFile() throws IOException {
+		node.delete();
+		assertEquals(HallProbe.STATE_UNKNOWN, probe.read());
+
+		//it opens the file again once it is back
+		write("CLOSE");
+		assertEquals(HallProbe.STATE_CLOSED, probe.read());
+	}
+
+	public void testCloseAndReopen() throws IOException {
+		write("CLOSE");
+		assertEquals(HallProbe.STATE_CLOSED, probe.read());
+		probe.close();
+		write("OPEN");
+		assertEquals(HallProbe.STATE_OPEN, probe.read());
+	}
+
+	/**
+	 * Times the probe against what Functions.Is.cover_closed did before it: a new Scanner on the file for every
+	 * read. The times are only logged, as they are too noisy to assert on; what is checked is that both read the
+	 * same state, and that the probe allocates nothing doing it.
+	 */
+	public void testCheaperThanScanner() throws IOException {
+		final int reads = 1000;
+		write("CLOSE\n");
+		//(the first read opens the file)
+		probe.read();
+
+		int closed = 0;
+		Debug.resetThreadAllocCount();
+		Debug.startAllocCounting();
+		long start = System.nanoTime();
+		for (int i = 0; i < reads; i++) {
+			if (probe.read() == HallProbe.STATE_CLOSED) closed++;
+		}
+		long probeTime = System.nanoTime() - start;
+		Debug.stopAllocCounting();
+		int probeAllocs = Debug.getThreadAllocCount();
+
+		int scannerClosed = 0;
+		Debug.resetThreadAllocCount();
+		Debug.startAllocCounting();
+		start = System.nanoTime();
+		for (int i = 0; i < reads; i++) {
+			Scanner sc = new Scanner(node);
+			if (sc.nextLine().compareTo("CLOSE") == 0) scannerClosed++;
+			sc.close();
+		}
+		long scannerTime = System.nanoTime() - start;
+		Debug.stopAllocCounting();
+		int scannerAllocs = Debug.getThreadAllocCount();
+
+		Log.d("HPT.cheaper", reads + " reads: probe " + probeTime / 1000 + "us (" + probeAllocs + " allocations), scanner "
+				+ scannerTime / 1000 + "us (" + scannerAllocs + " allocations)");
+		assertEquals(reads, closed);
+		assertEquals(reads, scannerClosed);
+		assertEquals(0, probeAllocs);
+	}
+}
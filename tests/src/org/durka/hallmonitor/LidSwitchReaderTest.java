@@ -0,0 +1,137 @@
+/* Copyright 2013 Alex Burka
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.durka.hallmonitor;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Feeds hand-built input_event structs to LidSwitchReader, from a ByteBuffer and from a file.
+ */
+public class LidSwitchReaderTest extends TestCase {
+
+	private static final int EV_SYN = 0x00;
+	private static final int EV_KEY = 0x01;
+	private static final int SW_HEADPHONE_INSERT = 0x02;
+
+	private static class RecordingReader extends LidSwitchReader {
+
+		final List<Boolean> reported = new ArrayList<Boolean>();
+
+		RecordingReader(String path) {
+			super(null, path);
+		}
+
+		@Override
+		void lid(boolean closed) {
+			reported.add(closed);
+		}
+	}
+
+	private static ByteBuffer events(int count) {
+		return ByteBuffer.allocate(count * LidSwitchReader.EVENT_SIZE).order(ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * Append one input_event, with a junk timestamp.
+	 */
+	private static void put(ByteBuffer buf, int type, int code, int value) {
+		int pos = buf.position();
+		for (int i = 0; i < LidSwitchReader.TYPE_OFFSET; i++) buf.put((byte) 0x5A);
+		buf.putShort(pos + LidSwitchReader.TYPE_OFFSET, (short) type);
+		buf.putShort(pos + LidSwitchReader.CODE_OFFSET, (short) code);
+		buf.putInt(pos + LidSwitchReader.VALUE_OFFSET, value);
+		buf.position(pos + LidSwitchReader.EVENT_SIZE);
+	}
+
+	public void testDecode() {
+		ByteBuffer buf = events(8);
+		put(buf, LidSwitchReader.EV_SW, LidSwitchReader.SW_LID, 1);
+		put(buf, EV_SYN, 0, 0);
+		put(buf, EV_KEY, LidSwitchReader.SW_LID, 1); //right code, wrong type
+		put(buf, LidSwitchReader.EV_SW, SW_HEADPHONE_INSERT, 1); //right type, wrong code
+		put(buf, LidSwitchReader.EV_SW, LidSwitchReader.SW_LID, 0);
+		put(buf, EV_SYN, 0, 0);
+		put(buf, LidSwitchReader.EV_SW, LidSwitchReader.SW_LID, 2); //anything non-zero is closed
+		put(buf, EV_SYN, 0, 0);
+		buf.flip();
+
+		RecordingReader reader = new RecordingReader(null);
+		reader.decode(buf);
+
+		assertEquals(3, reader.reported.size());
+		assertEquals(Boolean.TRUE, reader.reported.get(0));
+		assertEquals(Boolean.FALSE, reader.reported.get(1));
+		assertEquals(Boolean.TRUE, reader.reported.get(2));
+		assertEquals(buf.limit(), buf.position());
+	}
+
+	public void testPartialEvent() {
+		ByteBuffer buf = events(3);
+		put(buf, LidSwitchReader.EV_SW, LidSwitchReader.SW_LID, 1);
+		put(buf, LidSwitchReader.EV_SW, LidSwitchReader.SW_LID, 0);
+		buf.flip();
+		//cut the second event short
+		buf.limit(buf.limit() - 3);
+
+		RecordingReader reader = new RecordingReader(null);
+		reader.decode(buf);
+
+		assertEquals(1, reader.reported.size());
+		assertEquals(LidSwitchReader.EVENT_SIZE, buf.position());
+
+		//the rest of it arrives
+		buf.limit(2 * LidSwitchReader.EVENT_SIZE);
+		reader.decode(buf);
+
+		assertEquals(2, reader.reported.size());
+		assertEquals(Boolean.FALSE, reader.reported.get(1));
+	}
+
+	public void testRunReadsFile() throws Exception {
+		//more events than fit in the reader's buffer at once, and a partial one at the end
+		final int transitions = 150;
+		ByteBuffer buf = events(2 * transitions + 1);
+		for (int i = 0; i < transitions; i++) {
+			put(buf, LidSwitchReader.EV_SW, LidSwitchReader.SW_LID, i % 2 == 0 ? 1 : 0);
+			put(buf, EV_SYN, 0, 0);
+		}
+		put(buf, LidSwitchReader.EV_SW, LidSwitchReader.SW_LID, 1);
+
+		File dev = File.createTempFile("event", null);
+		try {
+			FileOutputStream out = new FileOutputStream(dev);
+			out.write(buf.array(), 0, buf.position() - 1);
+			out.close();
+
+			RecordingReader reader = new RecordingReader(dev.getPath());
+			//the file ends, so this returns once it has read everything
+			reader.run();
+
+			assertEquals(transitions, reader.reported.size());
+			for (int i = 0; i < transitions; i++) {
+				assertEquals(Boolean.valueOf(i % 2 == 0), reader.reported.get(i));
+			}
+		} finally {
+			dev.delete();
+		}
+	}
+}
@@ -0,0 +1,134 @@
+/* Copyright 2013 Alex Burka
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.durka.hallmonitor;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import android.content.Intent;
+import android.media.AudioManager;
+import android.os.Looper;
+import android.test.AndroidTestCase;
+
+/**
+ * Feeds simulated headset and player broadcasts to MediaStateTracker and checks the state it keeps and the
+ * changes it reports.
+ */
+public class MediaStateTrackerTest extends AndroidTestCase {
+
+	private static final long TIMEOUT = 5000;
+
+	private MediaStateTracker tracker;
+	private boolean savedHeadset, savedPlaying;
+	private int changes;
+
+	@Override
+	protected void setUp() throws Exception {
+		tracker = MediaStateTracker.getInstance(getContext());
+		savedHeadset = tracker.isHeadsetOn();
+		savedPlaying = tracker.isPlaying();
+		changes = 0;
+		tracker.setListener(new MediaStateTracker.Listener() {
+			@Override
+			public void onMediaStateChanged() {
+				changes++;
+			}
+		});
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		tracker.setListener(null);
+		tracker.received(plug(savedHeadset));
+		tracker.received(playState(savedPlaying));
+	}
+
+	private static Intent plug(boolean in) {
+		return new Intent(Intent.ACTION_HEADSET_PLUG).putExtra("state", in ? 1 : 0);
+	}
+
+	private static Intent playState(boolean playing) {
+		return new Intent(MediaStateTracker.PLAYSTATE_CHANGED).putExtra("playing", playing);
+	}
+
+	public void testHeadset() {
+		tracker.received(plug(false));
+		tracker.received(playState(false));
+		changes = 0;
+
+		tracker.received(plug(true));
+		assertTrue(tracker.isHeadsetOn());
+		assertTrue(tracker.isActive());
+		assertEquals(1, changes);
+
+		//the same state again isn't a change
+		tracker.received(plug(true));
+		assertEquals(1, changes);
+
+		tracker.received(plug(false));
+		assertFalse(tracker.isHeadsetOn());
+		assertFalse(tracker.isActive());
+		assertEquals(2, changes);
+	}
+
+	public void testPlayState() {
+		tracker.received(plug(false));
+		tracker.received(playState(false));
+		changes = 0;
+
+		tracker.received(playState(true));
+		assertTrue(tracker.isPlaying());
+		assertTrue(tracker.isActive());
+		tracker.received(playState(true));
+		tracker.received(playState(false));
+		assertFalse(tracker.isActive());
+		assertEquals(2, changes);
+	}
+
+	public void testBecomingNoisy() {
+		tracker.received(plug(true));
+		changes = 0;
+
+		tracker.received(new Intent(AudioManager.ACTION_AUDIO_BECOMING_NOISY));
+		assertFalse(tracker.isHeadsetOn());
+		assertEquals(1, changes);
+	}
+
+	public void testOtherBroadcastsIgnored() {
+		changes = 0;
+		tracker.received(new Intent(Intent.ACTION_SCREEN_ON));
+		assertEquals(0, changes);
+	}
+
+	public void testRealBroadcast() throws Exception {
+		tracker.received(playState(false));
+
+		//the player state broadcast isn't protected, so this one can go through the system
+		final CountDownLatch changed = new CountDownLatch(1);
+		final boolean[] onMain = new boolean[1];
+		tracker.setListener(new MediaStateTracker.Listener() {
+			@Override
+			public void onMediaStateChanged() {
+				onMain[0] = Looper.myLooper() == Looper.getMainLooper();
+				changed.countDown();
+			}
+		});
+		getContext().sendBroadcast(playState(true));
+
+		assertTrue(changed.await(TIMEOUT, TimeUnit.MILLISECONDS));
+		assertTrue(onMain[0]);
+		assertTrue(tracker.isPlaying());
+	}
+}
@@ -0,0 +1,139 @@
+/* Copyright 2013 Alex Burka
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.durka.hallmonitor;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import android.app.Notification;
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.service.notification.StatusBarNotification;
+import android.test.AndroidTestCase;
+
+/**
+ * Checks that notification icons are decoded by the loader in the background, and that the cover screen's path
+ * (the adapter looking an icon up on the main thread) never decodes one itself.
+ */
+public class NotificationIconLoaderTest extends AndroidTestCase {
+
+	private static final long TIMEOUT = 5000;
+
+	private NotificationIconCache cache;
+	private NotificationIconLoader loader;
+	private StatusBarNotification sbn;
+
+	@Override
+	protected void setUp() throws Exception {
+		cache = NotificationIconCache.getInstance(getContext());
+		loader = NotificationIconLoader.getInstance(getContext());
+		cache.evictAll();
+
+		//a notification with the app's own icon, so there is a real resource to decode
+		Notification n = new Notification();
+		n.icon = R.drawable.ic_launcher;
+		String pkg = getContext().getPackageName();
+		sbn = new StatusBarNotification(pkg, pkg, 1, "NotificationIconLoaderTest", Process.myUid(), Process.myPid(), 0,
+				n, Process.myUserHandle(), System.currentTimeMillis());
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		cache.evictAll();
+	}
+
+	/**
+	 * Run something on the main thread and wait for it.
+	 */
+	private void onMain(final Runnable r) throws InterruptedException {
+		final CountDownLatch done = new CountDownLatch(1);
+		new Handler(Looper.getMainLooper()).post(new Runnable() {
+			@Override
+			public void run() {
+				r.run();
+				done.countDown();
+			}
+		});
+		assertTrue(done.await(TIMEOUT, TimeUnit.MILLISECONDS));
+	}
+
+	private Bitmap awaitIcon() throws InterruptedException {
+		long end = SystemClock.uptimeMillis() + TIMEOUT;
+		Bitmap icon;
+		while ((icon = cache.getIcon(sbn)) == null && SystemClock.uptimeMillis() < end) {
+			Thread.sleep(10);
+		}
+		return icon;
+	}
+
+	public void testPrefetchDecodesInBackground() throws Exception {
+		int decodes = cache.getDecodeCount();
+		int mainDecodes = cache.getMainThreadDecodeCount();
+
+		//notifications are posted to the model on the main thread, which is where prefetches start
+		onMain(new Runnable() {
+			@Override
+			public void run() {
+				loader.prefetch(sbn);
+			}
+		});
+
+		assertNotNull(awaitIcon());
+		assertEquals(decodes + 1, cache.getDecodeCount());
+		assertEquals(mainDecodes, cache.getMainThreadDecodeCount());
+	}
+
+	public void testPrefetchSkipsCachedIcons() throws Exception {
+		loader.prefetch(sbn);
+		assertNotNull(awaitIcon());
+		int decodes = cache.getDecodeCount();
+
+		loader.prefetch(sbn);
+		loader.prefetch(sbn);
+		Thread.sleep(100);
+		assertEquals(decodes, cache.getDecodeCount());
+	}
+
+	public void testAdapterNeverDecodesOnMain() throws Exception {
+		NotificationModel model = new NotificationModel();
+		model.resync(new StatusBarNotification[]{sbn});
+		final NotificationAdapter adapter = new NotificationAdapter(getContext(), model);
+		final Bitmap[] bound = new Bitmap[2];
+		int mainDecodes = cache.getMainThreadDecodeCount();
+
+		//the first bind finds nothing and leaves the slot empty while the loader decodes it
+		onMain(new Runnable() {
+			@Override
+			public void run() {
+				bound[0] = adapter.getIcon(0);
+			}
+		});
+		assertNull(bound[0]);
+		assertNotNull(awaitIcon());
+
+		//the rebind gets it from memory
+		onMain(new Runnable() {
+			@Override
+			public void run() {
+				bound[1] = adapter.getIcon(0);
+			}
+		});
+		assertNotNull(bound[1]);
+		assertEquals(mainDecodes, cache.getMainThreadDecodeCount());
+	}
+}
@@ -0,0 +1,185 @@
+/* Copyright 2013 Alex Burka
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.durka.hallmonitor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import android.app.Notification;
+import android.os.Process;
+import android.service.notification.StatusBarNotification;
+
+/**
+ * Replays notification events into NotificationModel, and checks that a copy kept up to date only from the
+ * deltas it reports stays the same as the model.
+ */
+public class NotificationModelTest extends TestCase {
+
+	private NotificationModel model;
+	private Mirror mirror;
+
+	/**
+	 * Applies the deltas to its own list, like an adapter would.
+	 */
+	private class Mirror implements NotificationModel.Listener {
+
+		final List<StatusBarNotification> items = new ArrayList<StatusBarNotification>();
+		int deltas = 0;
+
+		@Override
+		public void onInserted(int position) {
+			deltas++;
+			items.add(position, model.get(position));
+		}
+
+		@Override
+		public void onRemoved(int position) {
+			deltas++;
+			items.remove(position);
+		}
+
+		@Override
+		public void onChanged(int position) {
+			deltas++;
+			items.set(position, model.get(position));
+		}
+
+		void check() {
+			assertEquals(model.size(), items.size());
+			for (int i = 0; i < items.size(); i++) {
+				assertSame("position " + i, model.get(i), items.get(i));
+			}
+		}
+	}
+
+	private static StatusBarNotification sbn(String pkg, int id, String tag) {
+		return new StatusBarNotification(pkg, pkg, id, tag, Process.myUid(), Process.myPid(), 0,
+				new Notification(), Process.myUserHandle(), System.currentTimeMillis());
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		model = new NotificationModel();
+		mirror = new Mirror();
+		model.resync(new StatusBarNotification[0]);
+		model.setListener(mirror);
+	}
+
+	public void testKey() {
+		assertEquals(NotificationModel.key(sbn("a", 1, null)), NotificationModel.key(sbn("a", 1, null)));
+		assertFalse(NotificationModel.key(sbn("a", 1, null)).equals(NotificationModel.key(sbn("a", 1, "t"))));
+		assertFalse(NotificationModel.key(sbn("a", 1, null)).equals(NotificationModel.key(sbn("a", 2, null))));
+		assertFalse(NotificationModel.key(sbn("a", 1, null)).equals(NotificationModel.key(sbn("b", 1, null))));
+	}
+
+	public void testPostAndUpdate() {
+		StatusBarNotification first = sbn("a", 1, null);
+		model.posted(first);
+		model.posted(sbn("b", 1, null));
+		mirror.check();
+		assertEquals(2, mirror.deltas);
+
+		//an update replaces it in place
+		StatusBarNotification update = sbn("a", 1, null);
+		model.posted(update);
+		mirror.check();
+		assertEquals(2, model.size());
+		assertSame(update, model.get(0));
+		assertEquals(3, mirror.deltas);
+	}
+
+	public void testRemove() {
+		model.posted(sbn("a", 1, null));
+		model.posted(sbn("b", 1, null));
+		model.posted(sbn("c", 1, null));
+
+		//the last one takes its place
+		model.removed(sbn("a", 1, null));
+		mirror.check();
+		assertEquals(2, model.size());
+		assertEquals("c", model.get(0).getPackageName());
+		assertEquals("b", model.get(1).getPackageName());
+
+		//removing the last one doesn't move anything
+		int deltas = mirror.deltas;
+		model.removed(sbn("b", 1, null));
+		mirror.check();
+		assertEquals(deltas + 1, mirror.deltas);
+
+		//unknown notifications are ignored
+		model.removed(sbn("z", 1, null));
+		mirror.check();
+		assertEquals(deltas + 1, mirror.deltas);
+	}
+
+	public void testChanged() {
+		model.posted(sbn("a", 1, null));
+		model.posted(sbn("b", 1, null));
+		int deltas = mirror.deltas;
+
+		model.changed(NotificationModel.key(sbn("b", 1, null)));
+		assertEquals(deltas + 1, mirror.deltas);
+		model.changed(NotificationModel.key(sbn("z", 1, null)));
+		assertEquals(deltas + 1, mirror.deltas);
+		mirror.check();
+	}
+
+	public void testResyncAndInvalidate() {
+		//a resync isn't reported as deltas
+		model.setListener(null);
+		model.resync(new StatusBarNotification[]{sbn("a", 1, null), sbn("b", 1, null)});
+		assertTrue(model.isSynced());
+		assertEquals(2, model.size());
+
+		//the positions from the resync are used by later removals
+		model.removed(sbn("a", 1, null));
+		assertEquals(1, model.size());
+		assertEquals("b", model.get(0).getPackageName());
+
+		model.invalidate();
+		assertFalse(model.isSynced());
+		assertEquals(0, model.size());
+	}
+
+	public void testRandomEvents() {
+		Random random = new Random(42);
+		HashMap<String, StatusBarNotification> live = new HashMap<String, StatusBarNotification>();
+
+		for (int i = 0; i < 5000; i++) {
+			StatusBarNotification sbn = sbn("pkg" + random.nextInt(5), random.nextInt(10), random.nextBoolean() ? null : "tag");
+			int before = mirror.deltas;
+
+			if (random.nextInt(3) == 0) {
+				model.removed(sbn);
+				live.remove(NotificationModel.key(sbn));
+			} else {
+				model.posted(sbn);
+				live.put(NotificationModel.key(sbn), sbn);
+			}
+
+			//every event costs at most two deltas, however many notifications there are
+			assertTrue(mirror.deltas - before <= 2);
+			mirror.check();
+		}
+
+		assertEquals(live.size(), model.size());
+		for (int i = 0; i < model.size(); i++) {
+			assertSame(live.get(NotificationModel.key(model.get(i))), model.get(i));
+		}
+	}
+}
@@ -0,0 +1,133 @@
+/* Copyright 2013 Alex Burka
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.durka.hallmonitor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.graphics.Bitmap;
+import android.test.AndroidTestCase;
+import android.view.View.MeasureSpec;
+
+/**
+ * Counts the measure and layout passes NotificationStrip goes through as notifications come and go.
+ */
+public class NotificationStripTest extends AndroidTestCase {
+
+	private static final int HEIGHT = 40;
+
+	private NotificationStrip strip;
+	private Icons icons;
+	private int spacing;
+
+	private static class Icons implements NotificationStrip.IconSource {
+
+		final List<Bitmap> bitmaps = new ArrayList<Bitmap>();
+		int lookups = 0;
+
+		@Override
+		public int getCount() {
+			return bitmaps.size();
+		}
+
+		@Override
+		public Bitmap getIcon(int position) {
+			lookups++;
+			return bitmaps.get(position);
+		}
+
+		void set(int count) {
+			bitmaps.clear();
+			for (int i = 0; i < count; i++) bitmaps.add(Bitmap.createBitmap(1, 1, Bitmap.Config.ARGB_8888));
+		}
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		strip = new NotificationStrip(getContext());
+		icons = new Icons();
+		strip.setSource(icons);
+		spacing = Math.round(4 * getContext().getResources().getDisplayMetrics().density);
+	}
+
+	/**
+	 * Measure and lay out the strip at a given width, the way its parent would.
+	 */
+	private void pass(int width) {
+		strip.measure(MeasureSpec.makeMeasureSpec(width, MeasureSpec.EXACTLY),
+				MeasureSpec.makeMeasureSpec(HEIGHT, MeasureSpec.EXACTLY));
+		strip.layout(0, 0, width, HEIGHT);
+	}
+
+	public void testSlotsFitTheWidth() {
+		pass(5 * HEIGHT + 4 * spacing);
+		assertEquals(5, strip.getChildCount());
+
+		pass(5 * HEIGHT + 4 * spacing - 1);
+		assertEquals(4, strip.getChildCount());
+
+		for (int i = 0; i < strip.getChildCount(); i++) {
+			assertEquals(HEIGHT, strip.getChildAt(i).getMeasuredWidth());
+		}
+	}
+
+	public void testChangesDontRelayout() {
+		int width = 5 * HEIGHT + 4 * spacing;
+		icons.set(2);
+		pass(width);
+		int measures = strip.getMeasureCount();
+		int layouts = strip.getLayoutCount();
+
+		//notifications come and go, more and fewer than there are slots
+		for (int i = 0; i < 100; i++) {
+			icons.set(i % 9);
+			strip.refresh();
+			strip.refresh(0);
+			assertFalse(strip.isLayoutRequested());
+		}
+
+		//the next frame at the same size doesn't measure or lay anything out
+		pass(width);
+		assertEquals(measures, strip.getMeasureCount());
+		assertEquals(layouts, strip.getLayoutCount());
+	}
+
+	public void testResizeRelayouts() {
+		pass(5 * HEIGHT + 4 * spacing);
+		int measures = strip.getMeasureCount();
+		int layouts = strip.getLayoutCount();
+
+		pass(3 * HEIGHT + 2 * spacing);
+		assertEquals(3, strip.getChildCount());
+		assertEquals(measures + 1, strip.getMeasureCount());
+		assertEquals(layouts + 1, strip.getLayoutCount());
+	}
+
+	public void testOnlyShownIconsAreLookedUp() {
+		pass(5 * HEIGHT + 4 * spacing);
+
+		//4 icons and the badge
+		icons.set(20);
+		icons.lookups = 0;
+		strip.refresh();
+		assertEquals(4, icons.lookups);
+
+		//a hidden one changing doesn't bind anything
+		strip.refresh(10);
+		assertEquals(4, icons.lookups);
+		strip.refresh(3);
+		assertEquals(5, icons.lookups);
+	}
+}
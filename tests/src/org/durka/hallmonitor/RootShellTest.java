@@ -0,0 +1,265 @@
+/* Copyright 2013 Alex Burka
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.durka.hallmonitor;
+
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import android.util.Log;
+
+import junit.framework.TestCase;
+
+/**
+ * Runs RootShell against a plain sh, which speaks the same protocol as su without asking for root.
+ */
+public class RootShellTest extends TestCase {
+
+	private static final long TIMEOUT = 5000;
+
+	private Scheduler scheduler;
+	private RootShell shell;
+
+	@Override
+	protected void setUp() throws Exception {
+		scheduler = new Scheduler("RootShellTest");
+		shell = new RootShell(scheduler, TIMEOUT, "sh");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		shell.close();
+		scheduler.shutdown();
+	}
+
+	public void testOutput() {
+		RootShell.Command cmd = shell.run("echo hello");
+		assertTrue(cmd.succeeded());
+		assertEquals(0, cmd.getExitCode());
+		assertEquals("hello", cmd.getOutput());
+		assertEquals("", cmd.getError());
+		assertTrue(cmd.getLatency() >= 0);
+	}
+
+	public void testMultiLineOutput() {
+		assertEquals("a\nb\nc", shell.run("echo a; echo b; echo c").getOutput());
+	}
+
+	public void testOutputWithoutNewline() {
+		//the marker ends up on the same line as the output
+		RootShell.Command cmd = shell.run("printf abc; printf def >&2");
+		assertTrue(cmd.succeeded());
+		assertEquals("abc", cmd.getOutput());
+		assertEquals("def", cmd.getError());
+	}
+
+	public void testStreamsAreSplit() {
+		RootShell.Command cmd = shell.run("echo out; echo err >&2; echo out2");
+		assertEquals("out\nout2", cmd.getOutput());
+		assertEquals("err", cmd.getError());
+	}
+
+	public void testExitCode() {
+		RootShell.Command cmd = shell.run("false");
+		assertFalse(cmd.succeeded());
+		assertEquals(1, cmd.getExitCode());
+
+		assertEquals(3, shell.run("(exit 3)").getExitCode());
+	}
+
+	public void testShellIsKept() {
+		String pid = shell.run("echo $$").getOutput();
+		assertTrue(pid.length() > 0);
+		assertEquals(pid, shell.run("echo $$").getOutput());
+
+		//state carries over between commands too
+		shell.run("HM_TEST=kept");
+		assertEquals("kept", shell.run("echo $HM_TEST").getOutput());
+	}
+
+	public void testPipelined() {
+		//queue them all before any has finished
+		List<RootShell.Command> cmds = new ArrayList<RootShell.Command>();
+		for (int i = 0; i < 100; i++) {
+			cmds.add(shell.submit("echo " + i + "; echo e" + i + " >&2", null));
+		}
+		for (int i = 0; i < 100; i++) {
+			RootShell.Command cmd = cmds.get(i);
+			assertTrue(cmd.await(TIMEOUT));
+			assertTrue(cmd.succeeded());
+			assertEquals(String.valueOf(i), cmd.getOutput());
+			assertEquals("e" + i, cmd.getError());
+		}
+	}
+
+	public void testRestartAfterShellDies() {
+		String pid = shell.run("echo $$").getOutput();
+
+		RootShell.Command exit = shell.run("exit");
+		assertTrue(exit.isDone());
+		assertFalse(exit.succeeded());
+
+		RootShell.Command next = shell.run("echo $$");
+		assertTrue(next.succeeded());
+		assertFalse(pid.equals(next.getOutput()));
+	}
+
+	public void testCloseRestarts() {
+		String pid = shell.run("echo $$").getOutput();
+		shell.close();
+		RootShell.Command next = shell.run("echo $$");
+		assertTrue(next.succeeded());
+		assertFalse(pid.equals(next.getOutput()));
+	}
+
+	public void testCallbackOnScheduler() throws Exception {
+		final CountDownLatch called = new CountDownLatch(1);
+		final String[] thread = new String[1];
+		final RootShell.Command[] result = new RootShell.Command[1];
+
+		RootShell.Command cmd = shell.submit("echo async", new RootShell.Callback() {
+			@Override
+			public void onResult(RootShell.Command cmd) {
+				thread[0] = Thread.currentThread().getName();
+				result[0] = cmd;
+				called.countDown();
+			}
+		});
+
+		assertTrue(called.await(TIMEOUT, TimeUnit.MILLISECONDS));
+		assertEquals("RootShellTest", thread[0]);
+		assertSame(cmd, result[0]);
+		assertEquals("async", cmd.getOutput());
+	}
+
+	public void testLargeOutputOnBothStreams() {
+		//far more than a pipe buffer on each stream, interleaved, so one stream stalls unless both are drained
+		RootShell.Command cmd = shell.run("i=0; while [ $i -lt 20000 ]; do echo out$i; echo err$i >&2; i=$((i+1)); done");
+		assertTrue(cmd.succeeded());
+
+		String[] out = cmd.getOutput().split("\n");
+		String[] err = cmd.getError().split("\n");
+		assertEquals(20000, out.length);
+		assertEquals(20000, err.length);
+		assertEquals("out19999", out[19999]);
+		assertEquals("err19999", err[19999]);
+	}
+
+	public void testTimeoutRestartsShell() {
+		RootShell quick = new RootShell(scheduler, 200, 200, "sh");
+		try {
+			String pid = quick.run("echo $$").getOutput();
+
+			long start = System.currentTimeMillis();
+			RootShell.Command slow = quick.run("sleep 5");
+			assertFalse(slow.succeeded());
+			assertTrue(System.currentTimeMillis() - start < 2000);
+
+			RootShell.Command next = quick.run("echo $$");
+			assertTrue(next.succeeded());
+			assertFalse(pid.equals(next.getOutput()));
+		} finally {
+			quick.close();
+		}
+	}
+
+	public void testGrantTimeoutUntilAnswered() {
+		RootShell granting = new RootShell(scheduler, 200, TIMEOUT, "sh");
+		try {
+			//the first command may take as long as the user needs to grant root
+			assertTrue(granting.run("sleep 1; echo granted").succeeded());
+			//after that the normal timeout applies
+			assertFalse(granting.run("sleep 1").succeeded());
+			//and a new shell gets the grant timeout again
+			assertTrue(granting.run("sleep 1; echo granted").succeeded());
+		} finally {
+			granting.close();
+		}
+	}
+
+	public void testShellThatWontStart() {
+		RootShell broken = new RootShell(scheduler, TIMEOUT, "/nonexistent/su");
+		RootShell.Command cmd = broken.run("echo hello");
+		assertTrue(cmd.isDone());
+		assertFalse(cmd.succeeded());
+	}
+
+	/**
+	 * What Functions.run_commands_as_root did before RootShell: start a new shell for every call, write the
+	 * commands and exit, then read the whole of stdout and then the whole of stderr.
+	 */
+	private static String forkPerCall(String command) throws IOException {
+		Process p = Runtime.getRuntime().exec("sh");
+		DataOutputStream os = new DataOutputStream(p.getOutputStream());
+		BufferedReader isBr = new BufferedReader(new InputStreamReader(p.getInputStream()));
+		BufferedReader esBr = new BufferedReader(new InputStreamReader(p.getErrorStream()));
+
+		os.writeBytes(command + "\n");
+		os.writeBytes("exit\n");
+		os.flush();
+
+		String currentLine;
+		String output = "";
+		while ((currentLine = isBr.readLine()) != null) {
+			output += currentLine + "\n";
+		}
+		while ((currentLine = esBr.readLine()) != null) {
+			//(thrown away, as before)
+		}
+		return output.trim();
+	}
+
+	/**
+	 * Times the same commands through a new shell each and through the kept shell. The times are only logged, as
+	 * they are too noisy to assert on; what is checked is that both get the same output, and how many shells each
+	 * started to get it.
+	 */
+	public void testCheaperThanForking() throws IOException {
+		final int calls = 50;
+		//(start the kept shell first, as the app would have already)
+		shell.run("true");
+
+		Set<String> forkedPids = new HashSet<String>();
+		long start = System.nanoTime();
+		for (int i = 0; i < calls; i++) {
+			String output = forkPerCall("echo " + i + " $$");
+			assertTrue(output.startsWith(i + " "));
+			forkedPids.add(output.substring(output.indexOf(' ') + 1));
+		}
+		long forked = System.nanoTime() - start;
+
+		Set<String> keptPids = new HashSet<String>();
+		start = System.nanoTime();
+		for (int i = 0; i < calls; i++) {
+			RootShell.Command cmd = shell.run("echo " + i + " $$");
+			assertTrue(cmd.succeeded());
+			String output = cmd.getOutput();
+			assertTrue(output.startsWith(i + " "));
+			keptPids.add(output.substring(output.indexOf(' ') + 1));
+		}
+		long kept = System.nanoTime() - start;
+
+		Log.d("RST.cheaper", calls + " calls: a shell each " + forked / 1000 + "us, kept shell " + kept / 1000 + "us");
+		assertEquals(calls, forkedPids.size());
+		assertEquals(1, keptPids.size());
+	}
+}
@@ -0,0 +1,179 @@
+/* Copyright 2013 Alex Burka
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.durka.hallmonitor;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks Scheduler's counters, that cancelling drops an action from the queue, and that a failing action doesn't
+ * take the thread down with it.
+ */
+public class SchedulerTest extends TestCase {
+
+	private static final long TIMEOUT = 5000;
+	//far enough off that it never runs during a test
+	private static final long LATER = 60 * 1000;
+
+	private Scheduler scheduler;
+
+	@Override
+	protected void setUp() throws Exception {
+		scheduler = new Scheduler("SchedulerTest");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		scheduler.shutdown();
+	}
+
+	//wait until everything queued to run now has run (there is only one thread, so it runs in order)
+	private void settle() throws InterruptedException {
+		final CountDownLatch done = new CountDownLatch(1);
+		scheduler.execute(new Runnable() {
+			@Override
+			public void run() {
+				done.countDown();
+			}
+		});
+		assertTrue(done.await(TIMEOUT, TimeUnit.MILLISECONDS));
+	}
+
+	public void testCounts() throws Exception {
+		final AtomicInteger runs = new AtomicInteger();
+		final CountDownLatch ran = new CountDownLatch(2);
+		Runnable count = new Runnable() {
+			@Override
+			public void run() {
+				runs.incrementAndGet();
+				ran.countDown();
+			}
+		};
+		scheduler.execute(count);
+		scheduler.schedule(count, 10);
+		Scheduler.Task later = scheduler.schedule(count, LATER);
+		assertEquals(3, scheduler.getScheduledCount());
+
+		assertTrue(later.cancel());
+		assertTrue(ran.await(TIMEOUT, TimeUnit.MILLISECONDS));
+		//(the barrier counts as one more)
+		settle();
+
+		assertEquals(2, runs.get());
+		assertEquals(4, scheduler.getScheduledCount());
+		assertEquals(3, scheduler.getFiredCount());
+		assertEquals(1, scheduler.getCancelledCount());
+		assertEquals(0, scheduler.getPendingCount());
+	}
+
+	public void testCancelDropsFromQueue() {
+		Runnable nothing = new Runnable() {
+			@Override
+			public void run() {
+			}
+		};
+		Scheduler.Task[] tasks = new Scheduler.Task[100];
+		for (int i = 0; i < tasks.length; i++) tasks[i] = scheduler.schedule(nothing, LATER);
+		assertEquals(100, scheduler.getPendingCount());
+
+		for (int i = 0; i < tasks.length; i++) {
+			assertTrue(tasks[i].cancel());
+			assertTrue(tasks[i].isDone());
+			//dropped straight away, not left in the queue until it would have run
+			assertEquals(tasks.length - i - 1, scheduler.getPendingCount());
+		}
+		assertEquals(100, scheduler.getCancelledCount());
+
+		//a second cancel does nothing
+		assertFalse(tasks[0].cancel());
+		assertEquals(100, scheduler.getCancelledCount());
+		assertEquals(0, scheduler.getFiredCount());
+	}
+
+	public void testCancelAfterRunning() throws Exception {
+		Scheduler.Task task = scheduler.execute(new Runnable() {
+			@Override
+			public void run() {
+			}
+		});
+		settle();
+
+		assertTrue(task.isDone());
+		assertFalse(task.cancel());
+		assertEquals(0, scheduler.getCancelledCount());
+	}
+
+	public void testFailingActionKeepsThread() throws Exception {
+		final AtomicReference<Thread> failedOn = new AtomicReference<Thread>();
+		final AtomicReference<Thread> ranOn = new AtomicReference<Thread>();
+		scheduler.execute(new Runnable() {
+			@Override
+			public void run() {
+				failedOn.set(Thread.currentThread());
+				throw new IllegalStateException("expected by the test");
+			}
+		});
+		scheduler.execute(new Runnable() {
+			@Override
+			public void run() {
+				ranOn.set(Thread.currentThread());
+			}
+		});
+		settle();
+
+		//the next action ran, on the same thread
+		assertNotNull(failedOn.get());
+		assertSame(failedOn.get(), ranOn.get());
+		assertTrue(ranOn.get().isAlive());
+		assertEquals(3, scheduler.getFiredCount());
+	}
+
+	public void testShutdown() throws Exception {
+		final AtomicReference<Thread> thread = new AtomicReference<Thread>();
+		final AtomicInteger runs = new AtomicInteger();
+		scheduler.execute(new Runnable() {
+			@Override
+			public void run() {
+				thread.set(Thread.currentThread());
+			}
+		});
+		settle();
+		scheduler.schedule(new Runnable() {
+			@Override
+			public void run() {
+				runs.incrementAndGet();
+			}
+		}, LATER);
+
+		scheduler.shutdown();
+		assertTrue(scheduler.isShutdown());
+		thread.get().join(TIMEOUT);
+		assertFalse(thread.get().isAlive());
+		assertEquals(0, scheduler.getPendingCount());
+
+		//dropped rather than thrown back at the caller
+		scheduler.execute(new Runnable() {
+			@Override
+			public void run() {
+				runs.incrementAndGet();
+			}
+		});
+		assertEquals(0, runs.get());
+	}
+}
@@ -0,0 +1,215 @@
+/* Copyright 2013 Alex Burka
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.durka.hallmonitor;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Scanner;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+/**
+ * Runs TouchSensitivityController over a plain sh, against a temp directory standing in for the tsp nodes,
+ * and counts the writes it makes.
+ */
+public class TouchSensitivityControllerTest extends TestCase {
+
+	private static final long TIMEOUT = 5000;
+
+	private File tspDir;
+	private Scheduler scheduler;
+	private CountingShell shell;
+
+	private class CountingShell extends RootShell {
+
+		final AtomicInteger writes = new AtomicInteger();
+
+		CountingShell() {
+			super(scheduler, TIMEOUT, "sh");
+		}
+
+		@Override
+		public Command submit(String command, Callback callback) {
+			if (command.contains("/cmd ")) writes.incrementAndGet();
+			return super.submit(command, callback);
+		}
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		tspDir = File.createTempFile("tsp", null);
+		tspDir.delete();
+		tspDir.mkdir();
+		scheduler = new Scheduler("TouchSensitivityControllerTest");
+		shell = new CountingShell();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		shell.close();
+		scheduler.shutdown();
+		new File(tspDir, "cmd").delete();
+		new File(tspDir, "cmd_result").delete();
+		tspDir.delete();
+	}
+
+	private void result(String contents) throws IOException {
+		FileOutputStream out = new FileOutputStream(new File(tspDir, "cmd_result"));
+		out.write(contents.getBytes());
+		out.close();
+	}
+
+	private String lastCommand() throws IOException {
+		Scanner sc = new Scanner(new File(tspDir, "cmd"));
+		String cmd = sc.nextLine();
+		sc.close();
+		return cmd;
+	}
+
+	/**
+	 * Wait for the writes in flight, the results being handled, and any writes those set off.
+	 */
+	private void settle() throws InterruptedException {
+		for (int i = 0; i < 3; i++) {
+			shell.run("true");
+			final CountDownLatch handled = new CountDownLatch(1);
+			scheduler.execute(new Runnable() {
+				@Override
+				public void run() {
+					handled.countDown();
+				}
+			});
+			assertTrue(handled.await(TIMEOUT, TimeUnit.MILLISECONDS));
+		}
+	}
+
+	public void testSkipsRedundantWrites() throws Exception {
+		result("clear_cover_mode:OK\n");
+		TouchSensitivityController tsc = new TouchSensitivityController(shell, tspDir.getPath(), "jflte");
+
+		tsc.setCovered(true);
+		settle();
+		assertEquals(1, shell.writes.get());
+		assertEquals("clear_cover_mode,1", lastCommand());
+
+		tsc.setCovered(true);
+		settle();
+		assertEquals(1, shell.writes.get());
+
+		tsc.setCovered(false);
+		settle();
+		assertEquals(2, shell.writes.get());
+		assertEquals("clear_cover_mode,0", lastCommand());
+	}
+
+	public void testUnconfirmedWriteIsRetried() throws Exception {
+		result("clear_cover_mode:NG\n");
+		TouchSensitivityController tsc = new TouchSensitivityController(shell, tspDir.getPath(), "jflte");
+
+		tsc.setCovered(true);
+		settle();
+		tsc.setCovered(true);
+		settle();
+		assertEquals(2, shell.writes.get());
+
+		//once it is confirmed, it sticks
+		result("clear_cover_mode:OK\n");
+		tsc.setCovered(true);
+		settle();
+		tsc.setCovered(true);
+		settle();
+		assertEquals(3, shell.writes.get());
+	}
+
+	public void testMissingResultIsNotConfirmed() throws Exception {
+		TouchSensitivityController tsc = new TouchSensitivityController(shell, tspDir.getPath(), "jflte");
+
+		tsc.setCovered(true);
+		settle();
+		tsc.setCovered(true);
+		settle();
+		assertEquals(2, shell.writes.get());
+	}
+
+	public void testEveryCommandMustBeConfirmed() throws Exception {
+		//this device writes two commands to enter cover mode, each read back separately
+		result("clear_cover_mode:OK\n");
+		TouchSensitivityController tsc = new TouchSensitivityController(shell, tspDir.getPath(), "serranolte");
+
+		tsc.setCovered(true);
+		settle();
+		assertEquals("clear_cover_mode,3", lastCommand());
+		tsc.setCovered(true);
+		settle();
+		assertEquals(1, shell.writes.get());
+
+		//any result line that isn't OK fails the write
+		result("module_on_master:NG\nclear_cover_mode:OK\n");
+		tsc.reset();
+		tsc.setCovered(true);
+		settle();
+		tsc.setCovered(true);
+		settle();
+		assertEquals(3, shell.writes.get());
+	}
+
+	public void testFlapsWhileWriting() throws Exception {
+		result("clear_cover_mode:OK\n");
+		TouchSensitivityController tsc = new TouchSensitivityController(shell, tspDir.getPath(), "jflte");
+
+		//hold up the shell so the first write stays in flight
+		shell.submit("sleep 1", null);
+		tsc.setCovered(true);
+		tsc.setCovered(false);
+		tsc.setCovered(true);
+		tsc.setCovered(false);
+		settle();
+
+		//only the final mode was written after the first write
+		assertEquals(2, shell.writes.get());
+		assertEquals("clear_cover_mode,0", lastCommand());
+	}
+
+	public void testFlapBackWhileWriting() throws Exception {
+		result("clear_cover_mode:OK\n");
+		TouchSensitivityController tsc = new TouchSensitivityController(shell, tspDir.getPath(), "jflte");
+
+		shell.submit("sleep 1", null);
+		tsc.setCovered(true);
+		tsc.setCovered(false);
+		tsc.setCovered(true);
+		settle();
+
+		//it ended up in the mode being written, so there is nothing more to write
+		assertEquals(1, shell.writes.get());
+		assertEquals("clear_cover_mode,1", lastCommand());
+	}
+
+	public void testReset() throws Exception {
+		result("clear_cover_mode:OK\n");
+		TouchSensitivityController tsc = new TouchSensitivityController(shell, tspDir.getPath(), "jflte");
+
+		tsc.setCovered(true);
+		settle();
+		tsc.reset();
+		tsc.setCovered(true);
+		settle();
+		assertEquals(2, shell.writes.get());
+	}
+}